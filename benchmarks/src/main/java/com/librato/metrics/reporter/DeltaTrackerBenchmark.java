@@ -0,0 +1,64 @@
+package com.librato.metrics.reporter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computing the count delta of a metered metric, which the reporter does for every meter, timer and
+ * histogram in every report, both by name and by the slot the reporter keeps for each metric.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeltaTrackerBenchmark {
+    @Param({"1000", "10000", "100000"})
+    int metrics;
+
+    @Param({Fixtures.LEGACY, Fixtures.TAGGING})
+    String mode;
+
+    DeltaTracker tracker;
+    String[] names;
+    int[] slots;
+    long[] counts;
+    int next;
+
+    @Setup
+    public void setUp() {
+        tracker = new DeltaTracker();
+        names = Fixtures.names(metrics, mode);
+        slots = new int[metrics];
+        counts = new long[metrics];
+        for (int i = 0; i < metrics; i++) {
+            slots[i] = tracker.slot(names[i]);
+        }
+    }
+
+    @Benchmark
+    public Long getDelta() {
+        int i = next;
+        next = next + 1 == names.length ? 0 : next + 1;
+        return tracker.getDelta(names[i], ++counts[i]);
+    }
+
+    @Benchmark
+    public long peekAndCommit() {
+        int i = next;
+        next = next + 1 == names.length ? 0 : next + 1;
+        return tracker.peekAndCommit(slots[i], ++counts[i]);
+    }
+}
@@ -0,0 +1,110 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.librato.metrics.client.Duration;
+import com.librato.metrics.client.HttpResponse;
+import com.librato.metrics.client.IPoster;
+import com.librato.metrics.client.Tag;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registries and reporters shared by the benchmarks. Legacy mode uses plain names with a source
+ * extracted by regex, tagging mode uses names encoded by {@link Librato#metric(MetricRegistry, String)}.
+ */
+final class Fixtures {
+    static final String LEGACY = "legacy";
+    static final String TAGGING = "tagging";
+    static final String SOURCE_REGEX = "^([^.]+)--";
+
+    static final IPoster NO_OP_POSTER = new IPoster() {
+        private final HttpResponse ok = new HttpResponse() {
+            @Override
+            public int getResponseCode() {
+                return 200;
+            }
+
+            @Override
+            public byte[] getResponseBody() {
+                return new byte[0];
+            }
+        };
+
+        @Override
+        public HttpResponse post(String uri,
+                                 Duration connectTimeout,
+                                 Duration readTimeout,
+                                 Map<String, String> headers,
+                                 byte[] payload) {
+            return ok;
+        }
+    };
+
+    private Fixtures() {
+    }
+
+    /**
+     * The registry names of {@code count} metrics, spread over 100 hosts
+     */
+    static String[] names(int count, String mode) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            String host = "host-" + (i % 100);
+            String name = "com.example.service.requests." + i;
+            if (TAGGING.equals(mode)) {
+                names[i] = Json.serialize(new Signal(name, null, Arrays.asList(new Tag("host", host)), false));
+            } else {
+                names[i] = host + "--" + name;
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Registers an even mix of gauges, counters, meters and timers under the given names, all of which
+     * have seen some activity
+     */
+    static MetricRegistry registry(String[] names) {
+        MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < names.length; i++) {
+            final int value = i;
+            switch (i % 4) {
+                case 0:
+                    registry.register(names[i], new Gauge<Integer>() {
+                        @Override
+                        public Integer getValue() {
+                            return value;
+                        }
+                    });
+                    break;
+                case 1:
+                    registry.counter(names[i]).inc(i);
+                    break;
+                case 2:
+                    registry.meter(names[i]).mark(i);
+                    break;
+                default:
+                    for (int j = 0; j < 10; j++) {
+                        registry.timer(names[i]).update(i + j, TimeUnit.MICROSECONDS);
+                    }
+            }
+        }
+        return registry;
+    }
+
+    static ReporterBuilder reporter(MetricRegistry registry, String mode) {
+        boolean tagging = TAGGING.equals(mode);
+        ReporterBuilder builder = Librato.reporter(registry, "benchmark@example.com", "token")
+                .setPoster(NO_OP_POSTER)
+                .setEnableLegacy(!tagging)
+                .setEnableTagging(tagging)
+                .setDeleteIdleStats(false);
+        if (!tagging) {
+            builder.setSourceRegex(SOURCE_REGEX);
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,84 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up an existing timer through the fluent helper, as application code does on every request,
+ * and through a {@link MetricTemplate} of the same metric.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricLookupBenchmark {
+    @Param({"1000", "10000", "100000"})
+    int metrics;
+
+    @Param({Fixtures.LEGACY, Fixtures.TAGGING})
+    String mode;
+
+    MetricRegistry registry;
+    String[] names;
+    String[] hosts;
+    MetricTemplate<Timer>[] templates;
+    int next;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        registry = new MetricRegistry();
+        names = new String[metrics];
+        hosts = new String[metrics];
+        templates = new MetricTemplate[metrics];
+        for (int i = 0; i < metrics; i++) {
+            names[i] = "com.example.service.requests." + i;
+            hosts[i] = "host-" + (i % 100);
+            if (Fixtures.TAGGING.equals(mode)) {
+                templates[i] = Librato.metric(registry, names[i]).timerTemplate("host");
+            } else {
+                templates[i] = Librato.metric(registry, names[i]).source(hosts[i]).timerTemplate();
+            }
+            lookup(i);
+        }
+    }
+
+    @Benchmark
+    public Timer timer() {
+        int i = next;
+        next = next + 1 == names.length ? 0 : next + 1;
+        return lookup(i);
+    }
+
+    @Benchmark
+    public Timer template() {
+        int i = next;
+        next = next + 1 == names.length ? 0 : next + 1;
+        if (Fixtures.TAGGING.equals(mode)) {
+            return templates[i].get(hosts[i]);
+        }
+        return templates[i].get();
+    }
+
+    private Timer lookup(int i) {
+        if (Fixtures.TAGGING.equals(mode)) {
+            return Librato.metric(registry, names[i]).tag("host", hosts[i]).timer();
+        }
+        return Librato.metric(registry, names[i]).source(hosts[i]).timer();
+    }
+}
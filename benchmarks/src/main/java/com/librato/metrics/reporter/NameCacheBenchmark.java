@@ -0,0 +1,80 @@
+package com.librato.metrics.reporter;
+
+import com.librato.metrics.client.Tag;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cache of encoded names behind the fluent helper, hit from several threads at once. The cache
+ * holds 5000 names, as the one in {@link Librato} does, so larger sizes also measure eviction.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class NameCacheBenchmark {
+    @State(Scope.Benchmark)
+    public static class Shared {
+        @Param({"1000", "10000", "100000"})
+        int metrics;
+
+        @Param({Fixtures.LEGACY, Fixtures.TAGGING})
+        String mode;
+
+        NameCache cache;
+        Signal[] signals;
+
+        @Setup
+        public void setUp() {
+            cache = new NameCache(5000);
+            signals = new Signal[metrics];
+            for (int i = 0; i < metrics; i++) {
+                String name = "com.example.service.requests." + i;
+                String host = "host-" + (i % 100);
+                if (Fixtures.TAGGING.equals(mode)) {
+                    signals[i] = new Signal(name, null, Collections.singletonList(new Tag("host", host)), false);
+                } else {
+                    signals[i] = new Signal(name, host);
+                }
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor implements Supplier<String> {
+        int next;
+        Signal signal;
+
+        @Setup
+        public void setUp() {
+            next = (int) (Thread.currentThread().getId() * 7919);
+        }
+
+        @Override
+        public String get() {
+            return Json.serialize(signal);
+        }
+    }
+
+    @Benchmark
+    public String get(Shared shared, Cursor cursor) {
+        cursor.next = (cursor.next + 1) % shared.signals.length;
+        cursor.signal = shared.signals[cursor.next];
+        return shared.cache.get(cursor.signal, cursor);
+    }
+}
@@ -0,0 +1,61 @@
+package com.librato.metrics.reporter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole report: collecting every metric in the registry, encoding it and posting to a poster that
+ * does nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportBenchmark {
+    @Param({"1000", "10000", "100000"})
+    int metrics;
+
+    @Param({Fixtures.LEGACY, Fixtures.TAGGING})
+    String mode;
+
+    @Param({"false", "true"})
+    boolean streaming;
+
+    // ignored when streaming, which always collects serially
+    @Param({"0", "4"})
+    int parallelism;
+
+    LibratoReporter reporter;
+
+    @Setup
+    public void setUp() {
+        reporter = Fixtures.reporter(Fixtures.registry(Fixtures.names(metrics, mode)), mode)
+                .setEnableStreaming(streaming)
+                .setCollectionParallelism(parallelism)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        reporter.stop();
+    }
+
+    @Benchmark
+    public void report() {
+        reporter.report();
+    }
+}
@@ -0,0 +1,56 @@
+package com.librato.metrics.reporter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning a registry name into the signal that is sent, which the reporter does for every metric in
+ * every report. With more metrics than the signal cache holds, this measures the cost of a miss.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolveSignalBenchmark {
+    @Param({"1000", "10000", "100000"})
+    int metrics;
+
+    @Param({Fixtures.LEGACY, Fixtures.TAGGING})
+    String mode;
+
+    LibratoReporter reporter;
+    String[] names;
+    int next;
+
+    @Setup
+    public void setUp() {
+        names = Fixtures.names(metrics, mode);
+        reporter = Fixtures.reporter(Fixtures.registry(names), mode).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        reporter.stop();
+    }
+
+    @Benchmark
+    public ResolvedSignal resolve() {
+        String name = names[next];
+        next = next + 1 == names.length ? 0 : next + 1;
+        return reporter.resolve(name);
+    }
+}
@@ -0,0 +1,47 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Timer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One request timer updated from many threads at once, as a {@link Timer} and as a {@link StripedTimer},
+ * both with an {@link IntervalReservoir} so that only the meter differs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class SharedTimerBenchmark {
+    @State(Scope.Benchmark)
+    public static class Shared {
+        @Param({"false", "true"})
+        boolean striped;
+
+        Timer timer;
+
+        @Setup
+        public void setUp() {
+            timer = striped ? new StripedTimer(new IntervalReservoir()) : new Timer(new IntervalReservoir());
+        }
+    }
+
+    @Benchmark
+    public void update(Shared shared) {
+        shared.timer.update(1500000, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,228 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.librato.metrics.client.IMeasure;
+import com.librato.metrics.client.Measures;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands reports off to a dedicated sender thread through a bounded queue, so that a slow Librato API
+ * never delays the collection of the next report. What happens when the queue is full is decided by
+ * the {@link QueueFullPolicy}.
+ */
+public class AsyncMeasuresSender implements IMeasuresSender {
+    private static final Logger log = LoggerFactory.getLogger(AsyncMeasuresSender.class);
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    /**
+     * The estimated size up to which reports are coalesced, unless told otherwise
+     */
+    public static final long DEFAULT_MAX_COALESCED_BYTES = 4 * 1024 * 1024;
+    private final IMeasuresSender delegate;
+    private final QueueFullPolicy policy;
+    private final long maxCoalescedBytes;
+    private final BlockingDeque<Measures> queue;
+    private final ExecutorService executor;
+    private final Object producerLock = new Object();
+    private final Timer latency;
+    private final Counter dropped;
+    private final Counter coalesced;
+    private final Gauge<Integer> queueDepth;
+    private final MetricRegistry statsRegistry;
+    private final String queueDepthName;
+    private volatile boolean stopped;
+    // the last report coalesced into and its estimated size, so that it is not estimated again
+    private Measures coalescedTail;
+    private long coalescedTailBytes;
+
+    public AsyncMeasuresSender(IMeasuresSender delegate,
+                               int queueSize,
+                               QueueFullPolicy policy,
+                               MetricRegistry statsRegistry,
+                               String statsPrefix) {
+        this(delegate, queueSize, policy, DEFAULT_MAX_COALESCED_BYTES, statsRegistry, statsPrefix);
+    }
+
+    /**
+     * @param maxCoalescedBytes the estimated size a coalesced report may grow to, past which the oldest
+     *                          report is dropped instead, as with {@link QueueFullPolicy#DROP_OLDEST}
+     */
+    public AsyncMeasuresSender(IMeasuresSender delegate,
+                               int queueSize,
+                               QueueFullPolicy policy,
+                               long maxCoalescedBytes,
+                               MetricRegistry statsRegistry,
+                               String statsPrefix) {
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("Queue size must be positive");
+        }
+        this.delegate = delegate;
+        this.policy = policy;
+        this.maxCoalescedBytes = maxCoalescedBytes;
+        this.queue = new LinkedBlockingDeque<Measures>(queueSize);
+        this.statsRegistry = statsRegistry;
+        this.latency = statsRegistry.timer(MetricRegistry.name(statsPrefix, "send", "latency"));
+        this.dropped = statsRegistry.counter(MetricRegistry.name(statsPrefix, "send", "dropped"));
+        this.coalesced = statsRegistry.counter(MetricRegistry.name(statsPrefix, "send", "coalesced"));
+        this.queueDepthName = MetricRegistry.name(statsPrefix, "send", "queueDepth");
+        this.queueDepth = new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return queue.size();
+            }
+        };
+        statsRegistry.remove(queueDepthName);
+        statsRegistry.register(queueDepthName, queueDepth);
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "librato-sender");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        });
+    }
+
+    public void send(Measures measures) {
+        if (stopped) {
+            log.warn("Sender is shut down, dropping report");
+            dropped.inc();
+            return;
+        }
+        switch (policy) {
+            case BLOCK:
+                enqueueBlocking(measures);
+                break;
+            case COALESCE:
+                enqueueCoalescing(measures);
+                break;
+            default:
+                enqueueDroppingOldest(measures);
+        }
+    }
+
+    public void shutdown() {
+        stopped = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Timed out sending the remaining {} queued reports", queue.size());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            statsRegistry.remove(queueDepthName);
+            delegate.shutdown();
+        }
+    }
+
+    /**
+     * The number of reports waiting to be sent
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private void enqueueBlocking(Measures measures) {
+        try {
+            while (!queue.offerLast(measures, 1, TimeUnit.SECONDS)) {
+                if (stopped) {
+                    dropped.inc();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            dropped.inc();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueueDroppingOldest(Measures measures) {
+        synchronized (producerLock) {
+            while (!queue.offerLast(measures)) {
+                if (queue.pollFirst() != null) {
+                    dropped.inc();
+                }
+            }
+        }
+    }
+
+    private void enqueueCoalescing(Measures measures) {
+        synchronized (producerLock) {
+            if (queue.offerLast(measures)) {
+                return;
+            }
+            Measures newest = queue.peekLast();
+            if (newest == null) {
+                // the sender thread took the last report in the meantime
+                queue.offerLast(measures);
+                return;
+            }
+            long newestBytes = newest == coalescedTail ? coalescedTailBytes : estimateBytes(newest);
+            long bytes = newestBytes + estimateBytes(measures);
+            if (bytes > maxCoalescedBytes) {
+                // coalescing would keep every report of a long outage, so the oldest ones go instead
+                coalescedTail = null;
+                enqueueDroppingOldest(measures);
+                return;
+            }
+            // the sender thread only ever takes from the head, so there is room again once the tail is removed
+            if (queue.removeLastOccurrence(newest)) {
+                measures = MeasuresCoalescer.coalesce(newest, measures);
+                coalesced.inc();
+                coalescedTail = measures;
+                coalescedTailBytes = bytes;
+            }
+            queue.offerLast(measures);
+        }
+    }
+
+    private static long estimateBytes(Measures measures) {
+        long bytes = 0;
+        for (IMeasure measure : measures.getMeasures()) {
+            bytes += MeasuresChunker.estimateBytes(measure);
+        }
+        return bytes;
+    }
+
+    private void drain() {
+        while (!stopped || !queue.isEmpty()) {
+            Measures measures;
+            try {
+                measures = queue.pollFirst(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (measures == null) {
+                continue;
+            }
+            Timer.Context context = latency.time();
+            try {
+                delegate.send(measures);
+            } catch (Exception e) {
+                log.error("Failure to send to Librato", e);
+            } finally {
+                context.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Snapshot;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+
+/**
+ * A snapshot of values counted in buckets, each value standing for all the values in its bucket.
+ * Percentiles, the mean and the standard deviation are computed from the counts, without expanding them
+ * into the individual values.
+ */
+public class BucketSnapshot extends Snapshot implements MultiQuantileSnapshot {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private final long[] values;
+    private final long[] counts;
+    private final long total;
+    private final double sum;
+
+    /**
+     * @param values the value of each bucket, in ascending order
+     * @param counts the number of values in each bucket
+     */
+    public BucketSnapshot(long[] values, long[] counts) {
+        this.values = values;
+        this.counts = counts;
+        long total = 0;
+        double sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += counts[i];
+            sum += (double) values[i] * counts[i];
+        }
+        this.total = total;
+        this.sum = sum;
+    }
+
+    @Override
+    public double getValue(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+        if (total == 0) {
+            return 0.0;
+        }
+        long rank = rank(quantile);
+        long seen = 0;
+        for (int i = 0; i < values.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return values[i];
+            }
+        }
+        return values[values.length - 1];
+    }
+
+    @Override
+    public double[] getQuantiles(double[] quantiles) {
+        double[] result = new double[quantiles.length];
+        if (total == 0) {
+            return result;
+        }
+        int next = 0;
+        long seen = 0;
+        for (int i = 0; i < values.length && next < quantiles.length; i++) {
+            seen += counts[i];
+            while (next < quantiles.length && seen >= rank(quantiles[next])) {
+                result[next++] = values[i];
+            }
+        }
+        while (next < quantiles.length) {
+            result[next++] = values[values.length - 1];
+        }
+        return result;
+    }
+
+    private long rank(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+        return Math.max(1, (long) Math.ceil(quantile * total));
+    }
+
+    /**
+     * Expands the counts into one value per recorded value, which may be a large array
+     */
+    @Override
+    public long[] getValues() {
+        long[] expanded = new long[size()];
+        int next = 0;
+        for (int i = 0; i < values.length && next < expanded.length; i++) {
+            for (long j = 0; j < counts[i] && next < expanded.length; j++) {
+                expanded[next++] = values[i];
+            }
+        }
+        return expanded;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(total, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax() {
+        return values.length == 0 ? 0 : values[values.length - 1];
+    }
+
+    @Override
+    public double getMean() {
+        return total == 0 ? 0 : sum / total;
+    }
+
+    @Override
+    public long getMin() {
+        return values.length == 0 ? 0 : values[0];
+    }
+
+    @Override
+    public double getStdDev() {
+        if (total <= 1) {
+            return 0;
+        }
+        double mean = getMean();
+        double variance = 0;
+        for (int i = 0; i < values.length; i++) {
+            double diff = values[i] - mean;
+            variance += diff * diff * counts[i];
+        }
+        return Math.sqrt(variance / (total - 1));
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(output, UTF_8));
+        try {
+            for (int i = 0; i < values.length; i++) {
+                for (long j = 0; j < counts[i]; j++) {
+                    out.printf("%d%n", values[i]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
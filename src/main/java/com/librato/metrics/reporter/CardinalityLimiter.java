@@ -0,0 +1,105 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Counter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caps the number of series the fluent helper registers per metric name. Once about the maximum number
+ * of source and tag combinations of a name have been registered, new combinations are reported as one
+ * overflow series of that name instead, and counted as rejected. The combinations are counted with a
+ * {@link HyperLogLog} per name, so the limiter takes 2KB per name however many series there are. The
+ * count is approximate, and it does not go down when series are removed, so once a name is at its limit
+ * a removed series which is registered again goes to the overflow series too.
+ */
+public class CardinalityLimiter {
+    /**
+     * The source, and the only tag, of the overflow series
+     */
+    public static final String OVERFLOW = "overflow";
+    public static final String OVERFLOW_TAG_NAME = "cardinality";
+    private final int maxSeries;
+    private final Counter rejected;
+    private final ConcurrentMap<String, Sketches> sketches = new ConcurrentHashMap<String, Sketches>();
+
+    public CardinalityLimiter(int maxSeries) {
+        this(maxSeries, new Counter());
+    }
+
+    /**
+     * @param rejected counts the distinct combinations which were sent to the overflow series, as the sum of
+     *                 the estimates per name
+     */
+    public CardinalityLimiter(int maxSeries, Counter rejected) {
+        if (maxSeries < 1) {
+            throw new IllegalArgumentException("The maximum number of series must be positive");
+        }
+        this.maxSeries = maxSeries;
+        this.rejected = rejected;
+    }
+
+    /**
+     * Returns true if a series may be registered for the metric name, false if it goes to the overflow
+     * series. Only called for series which are not in the registry yet.
+     *
+     * @param series the encoded registry name of the series
+     */
+    public boolean admit(String name, String series) {
+        Sketches sketch = sketches.get(name);
+        if (sketch == null) {
+            Sketches created = new Sketches();
+            sketch = sketches.putIfAbsent(name, created);
+            if (sketch == null) {
+                sketch = created;
+            }
+        }
+        synchronized (sketch) {
+            // the estimate never goes down, so once the limit is reached it need not be computed again
+            if (!sketch.full && sketch.admitted.cardinality() < maxSeries) {
+                sketch.admitted.offer(series);
+                return true;
+            }
+            sketch.full = true;
+            if (sketch.rejected.offer(series)) {
+                // a register went up, which may or may not change the estimate, so count the difference
+                long estimate = sketch.rejected.cardinality();
+                rejected.inc(estimate - sketch.rejectedEstimate);
+                sketch.rejectedEstimate = estimate;
+            }
+            return false;
+        }
+    }
+
+    public int getMaxSeries() {
+        return maxSeries;
+    }
+
+    /**
+     * The approximate number of combinations which were sent to the overflow series
+     */
+    public long getRejected() {
+        return rejected.getCount();
+    }
+
+    /**
+     * The approximate number of series admitted for a metric name
+     */
+    public long getAdmitted(String name) {
+        Sketches sketch = sketches.get(name);
+        if (sketch == null) {
+            return 0;
+        }
+        synchronized (sketch) {
+            return sketch.admitted.cardinality();
+        }
+    }
+
+    private static class Sketches {
+        final HyperLogLog admitted = new HyperLogLog();
+        final HyperLogLog rejected = new HyperLogLog();
+        boolean full;
+        // the estimate of the rejected sketch last added to the counter
+        long rejectedEstimate;
+    }
+}
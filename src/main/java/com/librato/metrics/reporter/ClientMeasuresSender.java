@@ -0,0 +1,147 @@
+package com.librato.metrics.reporter;
+
+import com.librato.metrics.client.LibratoClient;
+import com.librato.metrics.client.Measures;
+import com.librato.metrics.client.PostMeasuresResult;
+import com.librato.metrics.client.PostResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Posts measures with the {@link LibratoClient} and logs any failures. Large reports can be split into
+ * chunks which are then posted with a number of concurrent requests. If a spool is configured, payloads
+ * which failed for a reason that may go away are kept in it to be replayed later.
+ */
+public class ClientMeasuresSender implements IMeasuresSender {
+    private static final Logger log = LoggerFactory.getLogger(ClientMeasuresSender.class);
+    private final LibratoClient client;
+    private final MeasuresChunker chunker;
+    private final ExecutorService executor;
+    private final PayloadSpool spool;
+
+    public ClientMeasuresSender(LibratoClient client) {
+        this(client, new MeasuresChunker(0, 0), 1, null);
+    }
+
+    /**
+     * @param spool where payloads that failed to post are kept, or null
+     */
+    public ClientMeasuresSender(LibratoClient client,
+                                MeasuresChunker chunker,
+                                int concurrency,
+                                PayloadSpool spool) {
+        this.client = client;
+        this.chunker = chunker;
+        this.executor = concurrency > 1 ? newExecutor(concurrency) : null;
+        this.spool = spool;
+    }
+
+    public void send(Measures measures) {
+        try {
+            PostMeasuresResult postResults = post(chunker.chunk(measures));
+            for (PostResult result : postResults.results) {
+                if (result.isError()) {
+                    maybeSpool(measures, result);
+                    handlePostFailure(result);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Failure to post to Librato", e);
+        }
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private PostMeasuresResult post(List<Measures> chunks) throws InterruptedException {
+        if (chunks.size() == 1 || executor == null) {
+            PostMeasuresResult aggregate = new PostMeasuresResult();
+            for (Measures chunk : chunks) {
+                aggregate.results.addAll(client.postMeasures(chunk).results);
+            }
+            return aggregate;
+        }
+        List<Future<PostMeasuresResult>> futures = new ArrayList<Future<PostMeasuresResult>>(chunks.size());
+        for (final Measures chunk : chunks) {
+            futures.add(executor.submit(new Callable<PostMeasuresResult>() {
+                @Override
+                public PostMeasuresResult call() throws Exception {
+                    return client.postMeasures(chunk);
+                }
+            }));
+        }
+        PostMeasuresResult aggregate = new PostMeasuresResult();
+        for (Future<PostMeasuresResult> future : futures) {
+            try {
+                aggregate.results.addAll(future.get().results);
+            } catch (ExecutionException e) {
+                Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                aggregate.results.add(new PostResult(false, null, cause));
+            }
+        }
+        return aggregate;
+    }
+
+    private static ExecutorService newExecutor(int concurrency) {
+        return Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "librato-poster-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private void maybeSpool(Measures measures, PostResult result) {
+        if (spool == null || result.payload == null || measures.getEpoch() == null) {
+            return;
+        }
+        if (result.exception != null
+                || (result.response != null && SpoolReplayer.isRetriable(result.response.getResponseCode()))) {
+            spool.append(measures.getEpoch(), result.md, result.payload);
+        }
+    }
+
+    private void handlePostFailure(PostResult result) {
+        Exception exception = result.exception;
+        if (exception != null) {
+            handlePostFailure(exception);
+            return;
+        }
+        log.error("Failure to post to Librato: " + result.toString());
+    }
+
+    private void handlePostFailure(Exception e) {
+        Throwable cause = getCause(e);
+        if (cause instanceof SocketTimeoutException) {
+            log.warn("Could not connect to Librato", cause);
+            return;
+        }
+        log.warn("Failure to post to Librato", e);
+    }
+
+    private Throwable getCause(Exception e) {
+        Throwable cause = e;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
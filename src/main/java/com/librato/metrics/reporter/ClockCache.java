@@ -0,0 +1,197 @@
+package com.librato.metrics.reporter;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded concurrent cache which evicts with the CLOCK algorithm. Reads only touch the backing
+ * {@link ConcurrentHashMap} and set a reference bit, so they never lock. A value is computed once per
+ * key, however many threads miss on it at the same time; the others wait for it. When the cache is
+ * full the clock hand sweeps over the entries in insertion order, giving those read since the last
+ * sweep a second chance and evicting the first one that was not. Removed entries stay on the clock until
+ * the hand reaches them, or until there are more of them than live entries and an insert drops them all.
+ */
+public class ClockCache<K, V> {
+    // the number of removed entries tolerated on the clock before they are dropped, if there are few live ones
+    private static final int MIN_DEAD_TO_DRAIN = 64;
+    private final int maxSize;
+    private final ConcurrentMap<K, Node<K, V>> map = new ConcurrentHashMap<K, Node<K, V>>();
+    private final ConcurrentLinkedQueue<Node<K, V>> clock = new ConcurrentLinkedQueue<Node<K, V>>();
+    private final AtomicInteger size = new AtomicInteger();
+    // the number of removed entries still on the clock
+    private final AtomicInteger dead = new AtomicInteger();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter evictions = new StripedCounter();
+
+    public ClockCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached value, computing it with the supplier if there is none
+     */
+    public V get(K key, Supplier<V> supplier) {
+        Node<K, V> node = map.get(key);
+        if (node != null) {
+            V value = node.value;
+            if (value != null) {
+                node.touch();
+                hits.increment();
+                return value;
+            }
+        } else {
+            Node<K, V> created = new Node<K, V>(key);
+            node = map.putIfAbsent(key, created);
+            if (node == null) {
+                node = created;
+                clock.offer(node);
+                size.incrementAndGet();
+                evictIfFull();
+                drainIfMostlyDead();
+            }
+        }
+        return compute(node, supplier);
+    }
+
+    /**
+     * Returns the cached value, or null if there is none, without counting a hit or a miss
+     */
+    public V getIfPresent(K key) {
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            return null;
+        }
+        V value = node.value;
+        if (value != null) {
+            node.touch();
+        }
+        return value;
+    }
+
+    /**
+     * Drops the entry for a key, if there is one
+     */
+    public void remove(K key) {
+        Node<K, V> node = map.remove(key);
+        if (node != null) {
+            size.decrementAndGet();
+            node.removed = true;
+            dead.incrementAndGet();
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * The number of entries on the clock, including removed ones which have not been dropped yet
+     */
+    int clockSize() {
+        return clock.size();
+    }
+
+    private V compute(Node<K, V> node, Supplier<V> supplier) {
+        synchronized (node) {
+            V value = node.value;
+            if (value != null) {
+                hits.increment();
+                return value;
+            }
+            misses.increment();
+            value = supplier.get();
+            node.value = value;
+            return value;
+        }
+    }
+
+    private void evictIfFull() {
+        // one thread sweeps at a time, the others carry on and the cache briefly runs over its size
+        if (size.get() <= maxSize || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            while (size.get() > maxSize) {
+                Node<K, V> node = clock.poll();
+                if (node == null) {
+                    return;
+                }
+                if (node.removed) {
+                    dead.decrementAndGet();
+                } else if (node.referenced) {
+                    node.referenced = false;
+                    clock.offer(node);
+                } else if (map.remove(node.key, node)) {
+                    size.decrementAndGet();
+                    evictions.increment();
+                } else {
+                    // removed concurrently, which counted it as dead
+                    dead.decrementAndGet();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the removed entries from the clock once they outnumber the live ones, so that removing and
+     * adding keys below the maximum size does not grow it without bound
+     */
+    private void drainIfMostlyDead() {
+        int removed = dead.get();
+        if (removed <= Math.max(size.get(), MIN_DEAD_TO_DRAIN) || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            Iterator<Node<K, V>> nodes = clock.iterator();
+            while (nodes.hasNext()) {
+                if (nodes.next().removed) {
+                    nodes.remove();
+                    dead.decrementAndGet();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static class Node<K, V> {
+        final K key;
+        volatile V value;
+        volatile boolean referenced;
+        volatile boolean removed;
+
+        Node(K key) {
+            this.key = key;
+        }
+
+        void touch() {
+            // only write when needed, so that hot entries do not bounce between cores
+            if (!referenced) {
+                referenced = true;
+            }
+        }
+    }
+}
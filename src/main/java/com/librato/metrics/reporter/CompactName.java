@@ -0,0 +1,103 @@
+package com.librato.metrics.reporter;
+
+import com.librato.metrics.client.Tag;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Encodes signals as {@code ~name|source|key=value|key=value}, with a trailing {@code |!} field when the
+ * signal does not inherit the reporter's tags. The source field is empty when there is no source.
+ * Backslashes, pipes and equals signs in names, sources, tag names and tag values are escaped with a
+ * backslash.
+ */
+public class CompactName {
+    static final char PREFIX = '~';
+    private static final char SEPARATOR = '|';
+    private static final char ASSIGN = '=';
+    private static final char ESCAPE = '\\';
+    private static final String OVERRIDE_TAGS = "!";
+
+    public static String encode(Signal signal) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(PREFIX);
+        escape(sb, signal.name);
+        sb.append(SEPARATOR);
+        if (signal.source != null) {
+            escape(sb, signal.source);
+        }
+        for (Tag tag : signal.tags) {
+            sb.append(SEPARATOR);
+            escape(sb, tag.name);
+            sb.append(ASSIGN);
+            escape(sb, tag.value);
+        }
+        if (signal.overrideTags) {
+            sb.append(SEPARATOR).append(OVERRIDE_TAGS);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the signal the name encodes, or null if it is not a compact name
+     */
+    public static Signal decode(String data) {
+        if (data == null || data.length() < 2 || data.charAt(0) != PREFIX) {
+            return null;
+        }
+        StringBuilder field = new StringBuilder(data.length());
+        String name = null;
+        String source = null;
+        String tagName = null;
+        List<Tag> tags = Collections.emptyList();
+        boolean overrideTags = false;
+        int fields = 0;
+        int length = data.length();
+        for (int i = 1; i <= length; i++) {
+            char c = i < length ? data.charAt(i) : SEPARATOR;
+            if (c == ESCAPE && i + 1 < length) {
+                field.append(data.charAt(++i));
+            } else if (c == ASSIGN && fields >= 2 && tagName == null) {
+                tagName = field.toString();
+                field.setLength(0);
+            } else if (c != SEPARATOR) {
+                field.append(c);
+            } else if (fields == 0) {
+                if (i == length) {
+                    // a plain name which happens to start with the prefix
+                    return null;
+                }
+                name = field.toString();
+                field.setLength(0);
+                fields++;
+            } else if (fields == 1) {
+                source = field.length() > 0 ? field.toString() : null;
+                field.setLength(0);
+                fields++;
+            } else if (tagName != null) {
+                if (tags.isEmpty()) {
+                    tags = new ArrayList<Tag>();
+                }
+                tags.add(new Tag(tagName, field.toString()));
+                tagName = null;
+                field.setLength(0);
+            } else if (i == length && OVERRIDE_TAGS.contentEquals(field)) {
+                overrideTags = true;
+            } else {
+                return null;
+            }
+        }
+        return new Signal(name, source, tags, overrideTags);
+    }
+
+    private static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ESCAPE || c == SEPARATOR || c == ASSIGN) {
+                sb.append(ESCAPE);
+            }
+            sb.append(c);
+        }
+    }
+}
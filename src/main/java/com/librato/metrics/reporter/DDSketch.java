@@ -0,0 +1,226 @@
+package com.librato.metrics.reporter;
+
+/**
+ * A quantile sketch with a bounded relative error, after DDSketch. Values are counted in bins whose bounds
+ * grow geometrically, so any quantile is within the relative accuracy of the true value, and two sketches
+ * with the same accuracy merge without losing any. The bins cover the range from the lowest to the highest
+ * value, 4 bytes each, so memory grows with the spread of the values: at 2%, values within a factor of 100
+ * of each other take about 120 bins, and a factor of a million about 350. The range is limited to a maximum
+ * number of bins, past which the lowest bins are folded into one, and the quantiles which fall in it are no
+ * longer within the relative accuracy. The count, sum, minimum and maximum are exact. Not thread safe.
+ */
+public class DDSketch {
+    private static final int INITIAL_BINS = 8;
+    private static final int[] NO_BINS = new int[0];
+    private final double relativeAccuracy;
+    private final int maxBins;
+    private final double gamma;
+    private final double logGamma;
+    // bins[i] counts the values whose index is offset + i
+    private int[] bins = NO_BINS;
+    private int offset;
+    private int minIndex;
+    private int maxIndex;
+    private long zeroCount;
+    private long count;
+    private double sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    public DDSketch(double relativeAccuracy, int maxBins) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("The relative accuracy must be between 0 and 1");
+        }
+        if (maxBins < 1) {
+            throw new IllegalArgumentException("The maximum number of bins must be positive");
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.maxBins = maxBins;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    /**
+     * Returns an empty sketch with the same accuracy and maximum number of bins
+     */
+    public DDSketch emptyCopy() {
+        return new DDSketch(relativeAccuracy, maxBins);
+    }
+
+    /**
+     * Adds a value, negative values are counted as zero
+     */
+    public void add(long value) {
+        value = Math.max(0, value);
+        if (value == 0) {
+            zeroCount++;
+        } else {
+            increment(index(value), 1);
+        }
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the values of another sketch with the same relative accuracy
+     */
+    public void merge(DDSketch other) {
+        if (other.gamma != gamma) {
+            throw new IllegalArgumentException("Cannot merge sketches with different relative accuracies");
+        }
+        if (other.count == 0) {
+            return;
+        }
+        for (int i = 0; i < other.bins.length; i++) {
+            if (other.bins[i] != 0) {
+                increment(other.offset + i, other.bins[i]);
+            }
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns the value at the quantile, within the relative accuracy, or 0 if the sketch is empty
+     */
+    public double getQuantile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        double rank = quantile * (count - 1);
+        long seen = zeroCount;
+        if (seen > rank) {
+            return 0;
+        }
+        for (int i = 0; i < bins.length; i++) {
+            seen += bins[i];
+            if (seen > rank) {
+                return Math.max(min, Math.min(max, value(offset + i)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the value at each quantile in one pass over the bins
+     *
+     * @param quantiles the quantiles, in ascending order
+     */
+    public double[] getQuantiles(double[] quantiles) {
+        double[] result = new double[quantiles.length];
+        if (count == 0) {
+            return result;
+        }
+        int next = 0;
+        long seen = zeroCount;
+        while (next < quantiles.length && seen > quantiles[next] * (count - 1)) {
+            result[next++] = 0;
+        }
+        for (int i = 0; i < bins.length && next < quantiles.length; i++) {
+            if (bins[i] == 0) {
+                continue;
+            }
+            seen += bins[i];
+            double value = Math.max(min, Math.min(max, value(offset + i)));
+            while (next < quantiles.length && seen > quantiles[next] * (count - 1)) {
+                result[next++] = value;
+            }
+        }
+        while (next < quantiles.length) {
+            result[next++] = max;
+        }
+        return result;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    /**
+     * Calls back with the representative value and count of every bin which is not empty, in ascending order
+     */
+    void forEachBin(BinVisitor visitor) {
+        if (zeroCount > 0) {
+            visitor.visit(0, zeroCount);
+        }
+        for (int i = 0; i < bins.length; i++) {
+            if (bins[i] != 0) {
+                visitor.visit(Math.max(min, Math.min(max, value(offset + i))), bins[i]);
+            }
+        }
+    }
+
+    interface BinVisitor {
+        void visit(double value, long count);
+    }
+
+    private int index(long value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    private double value(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    private void increment(int index, int n) {
+        if (bins.length == 0) {
+            bins = new int[Math.min(INITIAL_BINS, maxBins)];
+            offset = index - bins.length / 2;
+            minIndex = index;
+            maxIndex = index;
+        } else if (index < offset || index >= offset + bins.length) {
+            index = extend(index);
+        } else {
+            minIndex = Math.min(minIndex, index);
+            maxIndex = Math.max(maxIndex, index);
+        }
+        bins[index - offset] += n;
+    }
+
+    /**
+     * Grows the bins to cover the index, folding the lowest bins together if that would take more than the
+     * maximum number of bins, and returns the index to count the value under
+     */
+    private int extend(int index) {
+        int low = Math.min(minIndex, index);
+        int high = Math.max(maxIndex, index);
+        if (high - low + 1 > maxBins) {
+            low = high - maxBins + 1;
+        }
+        int length = Math.min(maxBins, Math.max(bins.length * 2, high - low + 1));
+        // leave the room to grow on the side the range grew on
+        int newOffset = index < offset ? high - length + 1 : low;
+        int[] extended = new int[length];
+        for (int i = 0; i < bins.length; i++) {
+            if (bins[i] != 0) {
+                extended[Math.max(low, offset + i) - newOffset] += bins[i];
+            }
+        }
+        bins = extended;
+        offset = newOffset;
+        minIndex = low;
+        maxIndex = high;
+        return Math.max(low, index);
+    }
+}
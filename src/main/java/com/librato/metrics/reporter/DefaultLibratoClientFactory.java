@@ -1,5 +1,8 @@
 package com.librato.metrics.reporter;
 
+import com.codahale.metrics.MetricRegistry;
+import com.librato.metrics.client.DefaultPoster;
+import com.librato.metrics.client.IPoster;
 import com.librato.metrics.client.LibratoClient;
 import com.librato.metrics.client.LibratoClientBuilder;
 
@@ -14,9 +17,32 @@ public class DefaultLibratoClientFactory implements ILibratoClientFactory {
         if (atts.connectTimeout != null) {
             builder.setConnectTimeout(atts.connectTimeout);
         }
-        if (atts.poster != null) {
-            builder.setPoster(atts.poster);
+        int batchSize = new MeasuresChunker(atts.chunkSize, atts.chunkBytes).getClientBatchSize();
+        if (batchSize > 0) {
+            builder.setBatchSize(batchSize);
+        }
+        if (atts.enableGzip) {
+            MetricRegistry statsRegistry = ReporterStats.registry(atts);
+            builder.setPoster(new GzipPoster(buildPoster(atts, true),
+                    atts.compressionLevel,
+                    GzipPoster.uncompressedBytes(statsRegistry, atts.reporterName),
+                    GzipPoster.compressedBytes(statsRegistry, atts.reporterName)));
+        } else if (atts.poster != null || atts.stats != null) {
+            builder.setPoster(buildPoster(atts, true));
         }
         return builder.build();
     }
+
+    /**
+     * Builds the configured poster, instrumented if the reporter records its own stats
+     *
+     * @param reportPosts true if the poster is used to send reports, rather than to replay them
+     */
+    static IPoster buildPoster(ReporterAttributes atts, boolean reportPosts) {
+        IPoster poster = atts.poster != null ? atts.poster : new DefaultPoster();
+        if (atts.stats != null) {
+            poster = new InstrumentedPoster(poster, atts.stats, reportPosts);
+        }
+        return poster;
+    }
 }
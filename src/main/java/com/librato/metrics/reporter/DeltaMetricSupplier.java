@@ -1,6 +1,7 @@
 package com.librato.metrics.reporter;
 
 import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 
 import java.util.HashMap;
@@ -12,9 +13,18 @@ import java.util.Map;
  */
 public class DeltaMetricSupplier implements DeltaTracker.MetricSupplier {
     final MetricRegistry registry;
+    final MetricFilter filter;
 
     public DeltaMetricSupplier(MetricRegistry registry) {
+        this(registry, MetricFilter.ALL);
+    }
+
+    /**
+     * Only supplies the metrics that match the filter, as the others are never reported
+     */
+    public DeltaMetricSupplier(MetricRegistry registry, MetricFilter filter) {
         this.registry = registry;
+        this.filter = filter;
     }
 
     public Map<String, Metric> getMetrics() {
@@ -22,7 +32,9 @@ public class DeltaMetricSupplier implements DeltaTracker.MetricSupplier {
         for (Map.Entry<String, Metric> entry : registry.getMetrics().entrySet()) {
             // todo: ensure the name here is what we expect
             final String name = entry.getKey();
-            map.put(name, entry.getValue());
+            if (filter.matches(name, entry.getValue())) {
+                map.put(name, entry.getValue());
+            }
         }
         return map;
     }
@@ -6,17 +6,37 @@ import com.codahale.metrics.Metric;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Tracks the last named value.
+ * <p>
+ * Each name is given a stable slot the first time it is seen, and the last value is kept as a primitive
+ * long in that slot. Callers which hold on to the slot, as the reporter does, can then compute a delta
+ * with {@link #peekAndCommit(int, long)} without hashing the name or allocating.
+ * <p>
+ * Names are forgotten with {@link #remove(String)}. Their slots are only reused after the next
+ * {@link #sweep()}, so that a caller still holding a removed slot cannot disturb a new name.
  */
 public class DeltaTracker {
     private static final Logger LOG = LoggerFactory.getLogger(DeltaTracker.class);
-    private final ConcurrentMap<String, Long> lookup = new ConcurrentHashMap<String, Long>();
+    private static final int PAGE_SIZE = 1024;
+    // marks a slot which has been assigned but has not seen a value yet
+    private static final long UNSEEN = Long.MIN_VALUE;
+    private final ConcurrentMap<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+    private final Object growLock = new Object();
+    private volatile Page[] pages = new Page[0];
+    private int nextSlot;
+    // guarded by growLock
+    private final List<Integer> removedSlots = new ArrayList<Integer>();
+    private final List<Integer> freeSlots = new ArrayList<Integer>();
 
     public interface MetricSupplier {
         Map<String, Metric> getMetrics();
@@ -35,10 +55,10 @@ public class DeltaTracker {
             final String name = entry.getKey();
             final Metric metric = entry.getValue();
             if (metric instanceof Metered) {
-                lookup.put(name, ((Metered) metric).getCount());
+                getDelta(name, ((Metered) metric).getCount());
             }
             if (metric instanceof Histogram) {
-                lookup.put(name, ((Histogram) metric).getCount());
+                getDelta(name, ((Histogram) metric).getCount());
             }
         }
     }
@@ -47,7 +67,8 @@ public class DeltaTracker {
      * Gets the delta without updating the internal data store
      */
     public Long peekDelta(String name, long count) {
-        Long previous = lookup.get(name);
+        Integer slot = slots.get(name);
+        long previous = slot == null ? UNSEEN : page(slot).counts.get(slot % PAGE_SIZE);
         return calculateDelta(name, previous, count);
     }
 
@@ -60,17 +81,127 @@ public class DeltaTracker {
      * @return the delta
      */
     public Long getDelta(String name, long count) {
-        Long previous = lookup.put(name, count);
-        return calculateDelta(name, previous, count);
+        return peekAndCommit(slot(name), count);
+    }
+
+    /**
+     * Returns the stable slot of a name, assigning one if the name has not been seen before
+     */
+    public int slot(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (growLock) {
+            slot = slots.get(name);
+            if (slot == null) {
+                slot = freeSlots.isEmpty() ? nextSlot++ : freeSlots.remove(freeSlots.size() - 1);
+                if (slot / PAGE_SIZE == pages.length) {
+                    Page[] grown = new Page[pages.length + 1];
+                    System.arraycopy(pages, 0, grown, 0, pages.length);
+                    grown[pages.length] = new Page();
+                    pages = grown;
+                }
+                page(slot).names[slot % PAGE_SIZE] = name;
+                slots.put(name, slot);
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * Forgets a name, for example because its metric was removed from the registry
+     */
+    public void remove(String name) {
+        synchronized (growLock) {
+            Integer slot = slots.remove(name);
+            if (slot != null) {
+                removedSlots.add(slot);
+            }
+        }
+    }
+
+    /**
+     * Makes the slots of removed names available for reuse. Must not be called while slots obtained
+     * before the names were removed may still be used.
+     */
+    public void sweep() {
+        synchronized (growLock) {
+            for (Integer slot : removedSlots) {
+                Page page = page(slot);
+                page.counts.set(slot % PAGE_SIZE, UNSEEN);
+                page.idle.set(slot % PAGE_SIZE, 0);
+                page.names[slot % PAGE_SIZE] = null;
+                freeSlots.add(slot);
+            }
+            removedSlots.clear();
+        }
+    }
+
+    /**
+     * The number of names being tracked
+     */
+    public int size() {
+        return slots.size();
     }
 
-    private Long calculateDelta(String name, Long previous, long count) {
-        if (previous == null) {
-            previous = 0L;
-        } else if (count < previous) {
+    /**
+     * Calculates the delta for the name in the given slot and stores the supplied count, doing the
+     * work of {@link #getDelta(String, long)} with a single array access
+     *
+     * @param slot  a slot returned by {@link #slot(String)}
+     * @param count the counter value
+     * @return the delta
+     */
+    public long peekAndCommit(int slot, long count) {
+        Page page = page(slot);
+        int index = slot % PAGE_SIZE;
+        long previous = page.counts.getAndSet(index, count);
+        if (previous == count) {
+            page.idle.incrementAndGet(index);
+        } else {
+            page.idle.set(index, 0);
+        }
+        if (previous != UNSEEN && count < previous && LOG.isDebugEnabled()) {
+            LOG.debug("Saw a non-monotonically increasing value for metric {}", page.names[index]);
+        }
+        return delta(previous, count);
+    }
+
+    /**
+     * The number of consecutive commits to the slot which did not change its count
+     */
+    public int idleCommits(int slot) {
+        return page(slot).idle.get(slot % PAGE_SIZE);
+    }
+
+    private Page page(int slot) {
+        return pages[slot / PAGE_SIZE];
+    }
+
+    private long calculateDelta(String name, long previous, long count) {
+        if (previous != UNSEEN && count < previous) {
             LOG.debug("Saw a non-monotonically increasing value for metric {}", name);
-            previous = 0L;
+        }
+        return delta(previous, count);
+    }
+
+    private static long delta(long previous, long count) {
+        if (previous == UNSEEN || count < previous) {
+            return count;
         }
         return count - previous;
     }
+
+    private static class Page {
+        final AtomicLongArray counts = new AtomicLongArray(PAGE_SIZE);
+        final AtomicIntegerArray idle = new AtomicIntegerArray(PAGE_SIZE);
+        final String[] names = new String[PAGE_SIZE];
+
+        Page() {
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                counts.set(i, UNSEEN);
+            }
+        }
+    }
 }
@@ -0,0 +1,16 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Gauge;
+
+/**
+ * A gauge whose value the reporter reads as a primitive double, without boxing it. Other reporters read
+ * it through {@link #getValue()} as usual.
+ */
+public abstract class DoubleGauge implements Gauge<Double> {
+    public abstract double getDoubleValue();
+
+    @Override
+    public Double getValue() {
+        return getDoubleValue();
+    }
+}
@@ -2,12 +2,12 @@ package com.librato.metrics.reporter;
 
 public enum ExpandedMetric {
     // sampling
-    MEDIAN("median"),
-    PCT_75("75th"),
-    PCT_95("95th"),
-    PCT_98("98th"),
-    PCT_99("99th"),
-    PCT_999("999th"),
+    MEDIAN("median", 0.5),
+    PCT_75("75th", 0.75),
+    PCT_95("95th", 0.95),
+    PCT_98("98th", 0.98),
+    PCT_99("99th", 0.99),
+    PCT_999("999th", 0.999),
     // metered
     COUNT("count"),
     RATE_MEAN("meanRate"),
@@ -16,12 +16,25 @@ public enum ExpandedMetric {
     RATE_15_MINUTE("15MinuteRate");
 
     private final String displayName;
+    private final double quantile;
 
     public String buildMetricName(String metric) {
         return metric + "." + displayName;
     }
 
+    /**
+     * The quantile of a sampling metric, or NaN for the others
+     */
+    public double getQuantile() {
+        return quantile;
+    }
+
     private ExpandedMetric(String displayName) {
+        this(displayName, Double.NaN);
+    }
+
+    private ExpandedMetric(String displayName, double quantile) {
         this.displayName = displayName;
+        this.quantile = quantile;
     }
 }
@@ -0,0 +1,204 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads gauge values on a pool of threads, so that one slow gauge does not hold up the others or the
+ * report. A gauge which takes longer than the timeout to read is interrupted and skipped for that
+ * report. Once every thread is busy with a gauge which has timed out, gauges which have not started are
+ * skipped as well, so a report never waits for much longer than the timeout.
+ * <p>
+ * Timeouts are counted in {@code <prefix>.gauges.timeouts}. A gauge which times out in several reports
+ * in a row is logged, and the number of such gauges is the {@code <prefix>.gauges.slow} gauge.
+ */
+public class GaugeEvaluator {
+    private static final Logger log = LoggerFactory.getLogger(GaugeEvaluator.class);
+    // the number of reports in a row a gauge must time out in to count as slow
+    static final int SLOW_STREAK = 3;
+    private final ExecutorService executor;
+    private final long timeoutNanos;
+    private final Counter timeouts;
+    private final Map<String, Integer> timeoutStreaks = new ConcurrentHashMap<String, Integer>();
+    private final MetricRegistry statsRegistry;
+    private final String slowName;
+
+    public GaugeEvaluator(int threads, long timeout, TimeUnit unit, MetricRegistry statsRegistry, String statsPrefix) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of gauge threads must be positive");
+        }
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "librato-gauges-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.statsRegistry = statsRegistry;
+        this.timeouts = statsRegistry.counter(MetricRegistry.name(statsPrefix, "gauges", "timeouts"));
+        this.slowName = MetricRegistry.name(statsPrefix, "gauges", "slow");
+        statsRegistry.remove(slowName);
+        statsRegistry.register(slowName, new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getSlowGauges();
+            }
+        });
+    }
+
+    /**
+     * Reads the gauges, returning their values in iteration order. Gauges which timed out, failed or do
+     * not have a numeric value are NaN.
+     */
+    public double[] evaluate(SortedMap<String, Gauge> gauges) {
+        int size = gauges.size();
+        String[] names = new String[size];
+        Evaluation[] evaluations = new Evaluation[size];
+        int i = 0;
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            names[i] = entry.getKey();
+            evaluations[i] = new Evaluation(entry.getValue());
+            executor.execute(evaluations[i].task);
+            i++;
+        }
+        double[] values = new double[size];
+        boolean saturated = false;
+        for (i = 0; i < size; i++) {
+            Evaluation evaluation = evaluations[i];
+            values[i] = Double.NaN;
+            try {
+                if (await(evaluation, saturated)) {
+                    values[i] = evaluation.value;
+                    if (!timeoutStreaks.isEmpty()) {
+                        timeoutStreaks.remove(names[i]);
+                    }
+                } else {
+                    // a gauge which never got a thread means every thread is stuck
+                    saturated |= evaluation.started == 0;
+                    evaluation.task.cancel(true);
+                    timedOut(names[i]);
+                }
+            } catch (ExecutionException e) {
+                log.warn("Could not read gauge " + names[i], e.getCause());
+            } catch (InterruptedException e) {
+                for (; i < size; i++) {
+                    evaluations[i].task.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * The number of gauges which timed out in the last few reports
+     */
+    public int getSlowGauges() {
+        int slow = 0;
+        for (Integer streak : timeoutStreaks.values()) {
+            if (streak >= SLOW_STREAK) {
+                slow++;
+            }
+        }
+        return slow;
+    }
+
+    /**
+     * Forgets the timeouts of a gauge which has been removed from the registry
+     */
+    public void remove(String name) {
+        timeoutStreaks.remove(name);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        statsRegistry.remove(slowName);
+    }
+
+    /**
+     * Waits until the gauge is read or its time is up, which is the timeout after it started, or after
+     * the wait started if it has not
+     */
+    private boolean await(Evaluation evaluation, boolean saturated) throws ExecutionException, InterruptedException {
+        long waitStarted = System.nanoTime();
+        while (!evaluation.task.isDone()) {
+            long started = evaluation.started;
+            long now = System.nanoTime();
+            long remaining;
+            if (started != 0) {
+                remaining = started + timeoutNanos - now;
+            } else {
+                remaining = saturated ? 0 : waitStarted + timeoutNanos - now;
+            }
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                evaluation.task.get(remaining, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // the gauge may have started while waiting, which gives it longer
+            }
+        }
+        evaluation.task.get();
+        return true;
+    }
+
+    private void timedOut(String name) {
+        timeouts.inc();
+        Integer streak = timeoutStreaks.get(name);
+        streak = streak == null ? 1 : streak + 1;
+        timeoutStreaks.put(name, streak);
+        if (streak == SLOW_STREAK) {
+            log.warn("Gauge {} timed out in {} reports in a row", name, streak);
+        }
+    }
+
+    private static class Evaluation implements Callable<Void> {
+        private final Gauge gauge;
+        final FutureTask<Void> task = new FutureTask<Void>(this);
+        volatile long started;
+        // published to the reporter thread by the completion of the task
+        double value = Double.NaN;
+
+        Evaluation(Gauge gauge) {
+            this.gauge = gauge;
+        }
+
+        @Override
+        public Void call() {
+            started = System.nanoTime();
+            value = read(gauge);
+            return null;
+        }
+    }
+
+    static double read(Gauge gauge) {
+        if (gauge instanceof DoubleGauge) {
+            return ((DoubleGauge) gauge).getDoubleValue();
+        }
+        if (gauge instanceof LongGauge) {
+            return ((LongGauge) gauge).getLongValue();
+        }
+        Number number = Numbers.getNumberFrom(gauge.getValue());
+        return number != null ? number.doubleValue() : Double.NaN;
+    }
+}
@@ -0,0 +1,91 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.librato.metrics.client.Duration;
+import com.librato.metrics.client.HttpResponse;
+import com.librato.metrics.client.IPoster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An {@link IPoster} which gzips request bodies before handing them to another poster, counting the
+ * bytes before and after compression so the savings can be seen.
+ */
+public class GzipPoster implements IPoster {
+    private final IPoster delegate;
+    private final int level;
+    private final Counter uncompressedBytes;
+    private final Counter compressedBytes;
+
+    /**
+     * @param level the {@link Deflater} compression level, from 0 to 9, or -1 for the default
+     */
+    public GzipPoster(IPoster delegate, int level, Counter uncompressedBytes, Counter compressedBytes) {
+        this.delegate = delegate;
+        this.level = checkLevel(level);
+        this.uncompressedBytes = uncompressedBytes;
+        this.compressedBytes = compressedBytes;
+    }
+
+    /**
+     * The counter of bytes handed to the compressor, shared by all compressing posts of a reporter
+     */
+    static Counter uncompressedBytes(MetricRegistry registry, String prefix) {
+        return registry.counter(MetricRegistry.name(prefix, "compression", "uncompressedBytes"));
+    }
+
+    /**
+     * The counter of bytes sent after compression
+     */
+    static Counter compressedBytes(MetricRegistry registry, String prefix) {
+        return registry.counter(MetricRegistry.name(prefix, "compression", "compressedBytes"));
+    }
+
+    static int checkLevel(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9, or -1: " + level);
+        }
+        return level;
+    }
+
+    /**
+     * Opens a gzip stream compressing at the given level
+     */
+    static GZIPOutputStream open(OutputStream out, final int level) throws IOException {
+        return new GZIPOutputStream(out, 8 * 1024) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    @Override
+    public HttpResponse post(String uri,
+                             Duration connectTimeout,
+                             Duration readTimeout,
+                             Map<String, String> headers,
+                             byte[] payload) {
+        byte[] compressed;
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(512, payload.length / 4));
+            GZIPOutputStream gzip = open(buffer, level);
+            gzip.write(payload);
+            gzip.close();
+            compressed = buffer.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not compress payload", e);
+        }
+        uncompressedBytes.inc(payload.length);
+        compressedBytes.inc(compressed.length);
+        Map<String, String> gzipHeaders = new HashMap<String, String>(headers);
+        gzipHeaders.put("Content-Encoding", "gzip");
+        return delegate.post(uri, connectTimeout, readTimeout, gzipHeaders, compressed);
+    }
+}
@@ -0,0 +1,69 @@
+package com.librato.metrics.reporter;
+
+/**
+ * Estimates the number of distinct values offered to it in a fixed 1KB, with a standard error of about 3%.
+ * Not thread safe.
+ */
+public class HyperLogLog {
+    private static final int PRECISION = 10;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+    private final byte[] registers = new byte[REGISTERS];
+
+    /**
+     * Adds a value, returning false if it made no difference to the estimate, which is always the case for
+     * a value that was offered before
+     */
+    public boolean offer(String value) {
+        return offer(hash(value));
+    }
+
+    public long cardinality() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            // linear counting is more accurate for small cardinalities
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    private boolean offer(long hash) {
+        int index = index(hash);
+        byte rank = rank(hash);
+        if (rank <= registers[index]) {
+            return false;
+        }
+        registers[index] = rank;
+        return true;
+    }
+
+    private static int index(long hash) {
+        return (int) (hash >>> (64 - PRECISION));
+    }
+
+    private static byte rank(long hash) {
+        return (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+    }
+
+    static long hash(String value) {
+        long hash = 1125899906842597L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = 31 * hash + value.charAt(i);
+        }
+        // the murmur3 finalizer, to spread the bits over the whole word
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb93fe5a1d2f3L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,15 @@
+package com.librato.metrics.reporter;
+
+import com.librato.metrics.client.Measures;
+
+/**
+ * Takes the measures collected by the reporter and gets them to Librato.
+ */
+public interface IMeasuresSender {
+    void send(Measures measures);
+
+    /**
+     * Releases any resources held by the sender, sending what is still pending if possible
+     */
+    void shutdown();
+}
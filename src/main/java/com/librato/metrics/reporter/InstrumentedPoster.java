@@ -0,0 +1,63 @@
+package com.librato.metrics.reporter;
+
+import com.librato.metrics.client.Duration;
+import com.librato.metrics.client.HttpResponse;
+import com.librato.metrics.client.IPoster;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link IPoster} which records the latency, size and failures of the requests made through it in
+ * the {@link ReporterStats}.
+ */
+public class InstrumentedPoster implements IPoster {
+    private final IPoster delegate;
+    private final ReporterStats stats;
+    private final boolean reportPost;
+
+    /**
+     * @param reportPost true if the requests are made while a report is being sent, in which case their
+     *                   time is excluded from the collection and encoding times
+     */
+    public InstrumentedPoster(IPoster delegate, ReporterStats stats, boolean reportPost) {
+        this.delegate = delegate;
+        this.stats = stats;
+        this.reportPost = reportPost;
+    }
+
+    @Override
+    public HttpResponse post(String uri,
+                             Duration connectTimeout,
+                             Duration readTimeout,
+                             Map<String, String> headers,
+                             byte[] payload) {
+        long start = System.nanoTime();
+        try {
+            HttpResponse response = delegate.post(uri, connectTimeout, readTimeout, headers, payload);
+            int code = response.getResponseCode();
+            if (code / 100 != 2) {
+                stats.failed(String.valueOf(code));
+            }
+            return response;
+        } catch (RuntimeException e) {
+            stats.failed(rootCause(e).getClass().getSimpleName());
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            stats.postLatency.update(elapsed, TimeUnit.NANOSECONDS);
+            stats.postBytes.update(payload.length);
+            if (reportPost) {
+                stats.posted(elapsed);
+            }
+        }
+    }
+
+    private static Throwable rootCause(Throwable e) {
+        Throwable cause = e;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
@@ -0,0 +1,161 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A reservoir which counts values in fixed log-linear buckets, in the manner of HdrHistogram's
+ * {@code Recorder}, and starts over with every snapshot. The percentiles of a snapshot therefore describe
+ * exactly the values recorded since the previous one, which with a single reporter is one reporting
+ * period. Only one reader should take snapshots, since each one resets the interval.
+ * <p>
+ * Recording only increments a bucket, without locks or allocation. Two sets of buckets are kept, one
+ * being recorded to and one being read, and a snapshot swaps them, waiting for recorders still writing to
+ * the old set. Memory is fixed by the highest trackable value and the precision, which is the number of
+ * significant bits kept per value: 6 bits keep values to within about 1.6%. Larger values are recorded as
+ * the highest trackable value, and negative values as zero. The values of a snapshot are the midpoints of
+ * the buckets.
+ */
+public class IntervalReservoir implements Reservoir {
+    /**
+     * An hour in nanoseconds, enough for most timers
+     */
+    public static final long DEFAULT_HIGHEST_TRACKABLE_VALUE = TimeUnit.HOURS.toNanos(1);
+    public static final int DEFAULT_PRECISION_BITS = 6;
+    private final long highestTrackableValue;
+    private final int precisionBits;
+    private final int halfSubBuckets;
+    // the phases of writers and of the reader, see flip()
+    private final AtomicLong startEpoch = new AtomicLong(0);
+    private final AtomicLong evenEndEpoch = new AtomicLong(0);
+    private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+    private volatile AtomicLongArray active;
+    private AtomicLongArray inactive;
+
+    public static Supplier<Reservoir> supplier() {
+        return new Supplier<Reservoir>() {
+            @Override
+            public Reservoir get() {
+                return new IntervalReservoir();
+            }
+        };
+    }
+
+    public IntervalReservoir() {
+        this(DEFAULT_HIGHEST_TRACKABLE_VALUE, DEFAULT_PRECISION_BITS);
+    }
+
+    public IntervalReservoir(long highestTrackableValue, int precisionBits) {
+        if (highestTrackableValue < 1) {
+            throw new IllegalArgumentException("The highest trackable value must be positive");
+        }
+        if (precisionBits < 1 || precisionBits > 16) {
+            throw new IllegalArgumentException("The precision must be between 1 and 16 bits");
+        }
+        this.highestTrackableValue = highestTrackableValue;
+        this.precisionBits = precisionBits;
+        this.halfSubBuckets = 1 << (precisionBits - 1);
+        int buckets = index(highestTrackableValue) + 1;
+        this.active = new AtomicLongArray(buckets);
+        this.inactive = new AtomicLongArray(buckets);
+    }
+
+    @Override
+    public int size() {
+        AtomicLongArray buckets = active;
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+        }
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void update(long value) {
+        long epoch = startEpoch.getAndIncrement();
+        try {
+            active.incrementAndGet(index(Math.max(0, Math.min(value, highestTrackableValue))));
+        } finally {
+            if (epoch < 0) {
+                oddEndEpoch.incrementAndGet();
+            } else {
+                evenEndEpoch.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns the values recorded since the last snapshot, and starts a new interval
+     */
+    @Override
+    public synchronized Snapshot getSnapshot() {
+        AtomicLongArray recorded = active;
+        for (int i = 0; i < inactive.length(); i++) {
+            inactive.set(i, 0);
+        }
+        active = inactive;
+        flip();
+        inactive = recorded;
+        return snapshot(recorded);
+    }
+
+    private Snapshot snapshot(AtomicLongArray recorded) {
+        int used = 0;
+        for (int i = 0; i < recorded.length(); i++) {
+            if (recorded.get(i) != 0) {
+                used++;
+            }
+        }
+        long[] values = new long[used];
+        long[] counts = new long[used];
+        int next = 0;
+        for (int i = 0; i < recorded.length() && next < used; i++) {
+            long count = recorded.get(i);
+            if (count != 0) {
+                values[next] = midpoint(i);
+                counts[next] = count;
+                next++;
+            }
+        }
+        return new BucketSnapshot(values, counts);
+    }
+
+    /**
+     * Waits until every writer which may still be recording to the buckets that were active before the
+     * swap has finished. Writers count themselves in on the start epoch and out on the end epoch of their
+     * phase, whose sign tells the phases apart.
+     */
+    private void flip() {
+        boolean nextPhaseIsEven = startEpoch.get() < 0;
+        long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+        (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initialStartValue);
+        long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+        AtomicLong previousEndEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+        while (previousEndEpoch.get() != startValueAtFlip) {
+            Thread.yield();
+        }
+    }
+
+    int index(long value) {
+        if (value < 2 * halfSubBuckets) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - precisionBits;
+        return shift * halfSubBuckets + (int) (value >>> shift);
+    }
+
+    long midpoint(int index) {
+        if (index < 2 * halfSubBuckets) {
+            return index;
+        }
+        int shift = index / halfSubBuckets - 1;
+        long subBucket = index - shift * halfSubBuckets;
+        long lowest = subBucket << shift;
+        long highest = ((subBucket + 1) << shift) - 1;
+        return lowest + (highest - lowest) / 2;
+    }
+}
@@ -0,0 +1,93 @@
+package com.librato.metrics.reporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A minimal JSON writer which buffers into a fixed scratch array before handing bytes to the
+ * underlying stream. Numbers are formatted through a reused {@link StringBuilder}, so writing a value
+ * does not allocate. Strings are expected to already be encoded, see {@link StreamingPayloadEncoder}.
+ */
+public class JsonOutput {
+    private final byte[] scratch;
+    private final StringBuilder number = new StringBuilder(32);
+    private OutputStream out;
+    private int position;
+    private long bytesWritten;
+
+    public JsonOutput(int scratchBytes) {
+        this.scratch = new byte[scratchBytes];
+    }
+
+    /**
+     * Directs all further output to the given stream
+     */
+    public void reset(OutputStream out) {
+        this.out = out;
+        this.position = 0;
+        this.bytesWritten = 0;
+    }
+
+    /**
+     * The number of bytes flushed to the stream since the last {@link #reset(OutputStream)}
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public JsonOutput write(char ascii) throws IOException {
+        if (position == scratch.length) {
+            flush();
+        }
+        scratch[position++] = (byte) ascii;
+        return this;
+    }
+
+    public JsonOutput write(byte[] bytes) throws IOException {
+        if (bytes.length > scratch.length - position) {
+            flush();
+            if (bytes.length > scratch.length) {
+                out.write(bytes);
+                bytesWritten += bytes.length;
+                return this;
+            }
+        }
+        System.arraycopy(bytes, 0, scratch, position, bytes.length);
+        position += bytes.length;
+        return this;
+    }
+
+    public JsonOutput write(long value) throws IOException {
+        number.setLength(0);
+        number.append(value);
+        return writeNumber();
+    }
+
+    /**
+     * Writes a double the same way Jackson does, via {@link Double#toString(double)}
+     */
+    public JsonOutput write(double value) throws IOException {
+        number.setLength(0);
+        number.append(value);
+        return writeNumber();
+    }
+
+    public void flush() throws IOException {
+        if (position > 0) {
+            out.write(scratch, 0, position);
+            bytesWritten += position;
+            position = 0;
+        }
+    }
+
+    private JsonOutput writeNumber() throws IOException {
+        int length = number.length();
+        if (length > scratch.length - position) {
+            flush();
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[position++] = (byte) number.charAt(i);
+        }
+        return this;
+    }
+}
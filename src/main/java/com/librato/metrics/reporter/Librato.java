@@ -22,13 +22,34 @@ public class Librato {
     });
     public static final AtomicReference<MetricRegistry> defaultRegistry = new AtomicReference<MetricRegistry>(new MetricRegistry());
     public static final AtomicReference<Duration> defaultWindow = new AtomicReference<Duration>(new Duration(1, TimeUnit.MINUTES));
-    private static final NameCache nameCache = new NameCache(5000);
-    private final MetricRegistry registry;
+    /**
+     * The format that sources and tags are encoded into registry names with. Set it before registering
+     * metrics, since names already in the cache keep the format they were encoded with.
+     */
+    public static final AtomicReference<NameFormat> nameFormat = new AtomicReference<NameFormat>(NameFormat.JSON);
+    /**
+     * The cache of encoded names, replace it to change its size
+     */
+    public static final AtomicReference<NameCache> nameCache = new AtomicReference<NameCache>(new NameCache(5000));
+    /**
+     * Limits the number of series registered per metric name, or null for no limit
+     */
+    public static final AtomicReference<CardinalityLimiter> cardinalityLimiter = new AtomicReference<CardinalityLimiter>();
+    /**
+     * Whether the helper creates a {@link StripedMeter} and {@link StripedTimer} unless told otherwise
+     */
+    public static final AtomicReference<Boolean> defaultStriped = new AtomicReference<Boolean>(false);
+    final MetricRegistry registry;
     private final String name;
     private String source;
     private List<Tag> tags = Collections.emptyList();
     private boolean overrideTags;
     private Supplier<Reservoir> reservoir = defaultReservoir.get();
+    private boolean striped = defaultStriped.get();
+    // set when the metric was registered as the overflow series of its name
+    boolean overflowed;
+    // the name the last metric was registered under
+    String registeredName;
 
     public static ReporterBuilder reporter(MetricRegistry registry, String email, String token) {
         return new ReporterBuilder(registry, email, token);
@@ -74,6 +95,40 @@ public class Librato {
         return this;
     }
 
+    /**
+     * Uses an {@link IntervalReservoir}, so that percentiles cover exactly one reporting period
+     */
+    public Librato interval() {
+        this.reservoir = IntervalReservoir.supplier();
+        return this;
+    }
+
+    /**
+     * Uses a {@link SketchReservoir}, which is small and can be rolled up across series
+     */
+    public Librato sketch() {
+        this.reservoir = SketchReservoir.supplier();
+        return this;
+    }
+
+    /**
+     * Uses a {@link SketchReservoir} whose percentiles are within this relative accuracy, e.g. 0.01 for 1%
+     */
+    public Librato sketch(double relativeAccuracy) {
+        this.reservoir = SketchReservoir.supplier(relativeAccuracy);
+        return this;
+    }
+
+    /**
+     * Creates a {@link StripedMeter} or {@link StripedTimer}, for meters and timers shared by many threads.
+     * A striped timer still records into its reservoir on every update, so give it one which does not lock,
+     * such as {@link #interval()}.
+     */
+    public Librato striped() {
+        this.striped = true;
+        return this;
+    }
+
     public Librato source(Object source) {
         this.source = source.toString();
         return this;
@@ -113,6 +168,24 @@ public class Librato {
         });
     }
 
+    public DoubleGauge gauge(final DoubleGauge gauge) {
+        return register(DoubleGauge.class, new Supplier<DoubleGauge>() {
+            @Override
+            public DoubleGauge get() {
+                return gauge;
+            }
+        });
+    }
+
+    public LongGauge gauge(final LongGauge gauge) {
+        return register(LongGauge.class, new Supplier<LongGauge>() {
+            @Override
+            public LongGauge get() {
+                return gauge;
+            }
+        });
+    }
+
     public Counter counter() {
         return counter(null);
     }
@@ -156,7 +229,7 @@ public class Librato {
                 if (meter != null) {
                     return meter;
                 }
-                return new Meter();
+                return striped ? new StripedMeter() : new Meter();
             }
         });
     }
@@ -172,11 +245,47 @@ public class Librato {
                 if (timer != null) {
                     return timer;
                 }
-                return new Timer(reservoir.get());
+                return striped ? new StripedTimer(reservoir.get()) : new Timer(reservoir.get());
             }
         });
     }
 
+    public MetricTemplate<Counter> counterTemplate(String... tagNames) {
+        return new MetricTemplate<Counter>(copy(), tagNames) {
+            @Override
+            Counter register(Librato metric) {
+                return metric.counter();
+            }
+        };
+    }
+
+    public MetricTemplate<Histogram> histogramTemplate(String... tagNames) {
+        return new MetricTemplate<Histogram>(copy(), tagNames) {
+            @Override
+            Histogram register(Librato metric) {
+                return metric.histogram();
+            }
+        };
+    }
+
+    public MetricTemplate<Meter> meterTemplate(String... tagNames) {
+        return new MetricTemplate<Meter>(copy(), tagNames) {
+            @Override
+            Meter register(Librato metric) {
+                return metric.meter();
+            }
+        };
+    }
+
+    public MetricTemplate<Timer> timerTemplate(String... tagNames) {
+        return new MetricTemplate<Timer>(copy(), tagNames) {
+            @Override
+            Timer register(Librato metric) {
+                return metric.timer();
+            }
+        };
+    }
+
     public boolean remove() {
         Signal signal = createSignal();
         if (signal == null) {
@@ -185,6 +294,16 @@ public class Librato {
         return registry.remove(encodeName(signal));
     }
 
+    Librato copy() {
+        Librato copy = new Librato(registry, name);
+        copy.source = source;
+        copy.tags = tags.isEmpty() ? tags : new LinkedList<Tag>(tags);
+        copy.overrideTags = overrideTags;
+        copy.reservoir = reservoir;
+        copy.striped = striped;
+        return copy;
+    }
+
     private void addTag(Tag tag) {
         if (this.tags.isEmpty()) {
             this.tags = new LinkedList<Tag>();
@@ -195,17 +314,33 @@ public class Librato {
     private <T extends Metric> T register(Class<T> klass, Supplier<T> metric) {
         Signal signal = createSignal();
         if (signal == null) {
+            registeredName = name;
             return register(registry, name, metric, klass);
         }
         String encodedName = encodeName(signal);
+        CardinalityLimiter limiter = cardinalityLimiter.get();
+        if (limiter != null
+                && MetricIndex.of(registry).get(encodedName) == null
+                && !limiter.admit(name, encodedName)) {
+            overflowed = true;
+            encodedName = encodeName(overflowSignal());
+        }
+        registeredName = encodedName;
         return register(registry, encodedName, metric, klass);
     }
 
+    private Signal overflowSignal() {
+        List<Tag> overflowTags = tags.isEmpty()
+                ? Collections.<Tag>emptyList()
+                : Collections.singletonList(new Tag(CardinalityLimiter.OVERFLOW_TAG_NAME, CardinalityLimiter.OVERFLOW));
+        return new Signal(name, source != null ? CardinalityLimiter.OVERFLOW : null, overflowTags, overrideTags);
+    }
+
     private <T extends Metric> T register(MetricRegistry registry,
                                           String name,
                                           Supplier<T> metric,
                                           Class<T> klass) {
-        Metric found = registry.getMetrics().get(name);
+        Metric found = MetricIndex.of(registry).get(name);
         if (found != null) {
             return verifyFound(found, klass);
         }
@@ -237,10 +372,10 @@ public class Librato {
 
 
     private String encodeName(final Signal signal) {
-        return nameCache.get(signal, new Supplier<String>() {
+        return nameCache.get().get(signal, new Supplier<String>() {
             @Override
             public String get() {
-                return Json.serialize(signal);
+                return nameFormat.get().encode(signal);
             }
         });
     }
@@ -5,11 +5,24 @@ import com.librato.metrics.client.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.SocketTimeoutException;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.Map;
 import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
@@ -20,21 +33,40 @@ import static com.librato.metrics.reporter.ExpandedMetric.*;
  */
 public class LibratoReporter extends ScheduledReporter implements RateConverter, DurationConverter {
     private static final Logger log = LoggerFactory.getLogger(LibratoReporter.class);
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    // the number of metrics of one type collected by one task when collecting in parallel
+    private static final int COLLECTION_SLICE_SIZE = 1000;
     private static MetricRegistry registry;
-    private final LibratoClient client;
+    private final IMeasuresSender sender;
+    private final StreamingPayloadEncoder streamingEncoder;
     private final DeltaTracker deltaTracker;
     private final Pattern sourceRegex;
     private final String prefix;
     private final String prefixDelimiter;
     private final MetricExpansionConfig expansionConfig;
+    private final PercentileSet percentiles;
+    // the percentiles of the metrics which have their own, by prefixed name
+    private final Map<String, PercentileSet> metricPercentiles = new HashMap<String, PercentileSet>();
     private final boolean deleteIdleStats;
     private final boolean omitComplexGauges;
     private final String source;
-    private final List<Tag> tags;
+    private final TagSet tags;
+    private final int idleSeriesTtl;
+    private final GaugeEvaluator gaugeEvaluator;
+    // the idle series found by the current report, possibly by several collection threads
+    private final Queue<String> expired = new ConcurrentLinkedQueue<String>();
+    private final ForkJoinPool collectionPool;
+    // the untagged totals of sketch series by metric name, or null unless rollups are enabled
+    private final ConcurrentMap<String, SketchRollup> sketchRollups;
     private final boolean enableLegacy;
     private final boolean enableTagging;
     private final RateConverter rateConverter;
     private final DurationConverter durationConverter;
+    private final MetricRegistry metricRegistry;
+    private final SignalCache signalCache;
+    private final MetricRemovalListener removalListener;
+    private final SpoolReplayer spoolReplayer;
+    private final ReporterStats stats;
     private volatile Integer defaultPeriod;
 
     public static ReporterBuilder builder(MetricRegistry registry,
@@ -53,20 +85,66 @@ public class LibratoReporter extends ScheduledReporter implements RateConverter,
                 atts.rateUnit,
                 atts.durationUnit);
         Librato.defaultRegistry.set(atts.registry);
-        this.client = atts.libratoClientFactory.build(atts);
-        this.deltaTracker = new DeltaTracker(new DeltaMetricSupplier(atts.registry));
+        if (atts.nameFormat != null) {
+            Librato.nameFormat.set(atts.nameFormat);
+        }
+        if (atts.maxSeriesPerMetric > 0) {
+            Librato.cardinalityLimiter.set(new CardinalityLimiter(atts.maxSeriesPerMetric,
+                    ReporterStats.registry(atts).counter(MetricRegistry.name(atts.reporterName, "cardinality", "rejected"))));
+        }
+        this.stats = atts.enableStats ? new ReporterStats(ReporterStats.registry(atts), atts.reporterName) : null;
+        atts.stats = stats;
+        this.spoolReplayer = buildSpoolReplayer(atts);
+        PayloadSpool spool = spoolReplayer != null ? spoolReplayer.getSpool() : null;
+        this.streamingEncoder = atts.enableStreaming ? buildStreamingEncoder(atts, spool) : null;
+        this.sender = atts.enableStreaming ? null : buildSender(atts, spool);
+        this.deltaTracker = new DeltaTracker(new DeltaMetricSupplier(atts.registry, atts.metricFilter));
         this.sourceRegex = atts.sourceRegex;
         this.prefix = checkPrefix(atts.prefix);
         this.prefixDelimiter = atts.prefixDelimiter;
         this.expansionConfig = atts.expansionConfig;
+        List<Percentile> configured = PercentileSet.percentiles(atts.percentiles, 0);
+        this.percentiles = new PercentileSet(atts.expansionConfig, configured);
+        int nextIndex = configured.size();
+        for (Map.Entry<String, double[]> entry : atts.metricPercentiles.entrySet()) {
+            List<Percentile> own = PercentileSet.percentiles(entry.getValue(), nextIndex);
+            nextIndex += own.size();
+            metricPercentiles.put(addPrefix(entry.getKey()), new PercentileSet(atts.expansionConfig, own));
+        }
         this.deleteIdleStats = atts.deleteIdleStats;
         this.omitComplexGauges = atts.omitComplexGauges;
         this.source = atts.source;
-        this.tags = atts.tags;
+        this.tags = TagSet.of(atts.tags);
+        this.idleSeriesTtl = atts.idleSeriesTtl;
+        this.gaugeEvaluator = atts.gaugeThreads > 0
+                ? new GaugeEvaluator(atts.gaugeThreads,
+                        atts.gaugeTimeout.duration,
+                        atts.gaugeTimeout.timeUnit,
+                        ReporterStats.registry(atts),
+                        atts.reporterName)
+                : null;
+        // the streaming encoder writes one payload in registry order, so it always collects serially
+        this.collectionPool = atts.collectionParallelism > 0 && !atts.enableStreaming
+                ? buildCollectionPool(atts.collectionParallelism)
+                : null;
+        this.sketchRollups = atts.enableSketchRollups ? new ConcurrentHashMap<String, SketchRollup>() : null;
         this.enableLegacy = atts.enableLegacy;
         this.enableTagging = atts.enableTagging;
         this.rateConverter = atts.rateConverter != null ? atts.rateConverter : this;
         this.durationConverter = atts.durationConverter != null ? atts.durationConverter : this;
+        this.metricRegistry = atts.registry;
+        this.signalCache = new SignalCache(atts.signalCacheSize);
+        this.removalListener = new MetricRemovalListener() {
+            @Override
+            public void onMetricRemoved(String name) {
+                signalCache.invalidate(name);
+                deltaTracker.remove(name);
+                if (gaugeEvaluator != null) {
+                    gaugeEvaluator.remove(name);
+                }
+            }
+        };
+        atts.registry.addListener(removalListener);
     }
 
     @Override
@@ -76,132 +154,412 @@ public class LibratoReporter extends ScheduledReporter implements RateConverter,
         super.start(period, unit);
     }
 
+    private static SpoolReplayer buildSpoolReplayer(ReporterAttributes atts) {
+        if (atts.spoolDirectory == null) {
+            return null;
+        }
+        try {
+            PayloadSpool spool = new PayloadSpool(atts.spoolDirectory,
+                    atts.spoolSegmentBytes,
+                    atts.spoolMaxBytes,
+                    atts.spoolMaxAge.duration,
+                    atts.spoolMaxAge.timeUnit);
+            SpoolReplayer replayer = new SpoolReplayer(spool, new PayloadPoster(atts, false), atts.spoolReplayRate);
+            replayer.start();
+            return replayer;
+        } catch (IOException e) {
+            log.error("Could not open the spool in " + atts.spoolDirectory + ", failed posts will not be replayed", e);
+            return null;
+        }
+    }
+
+    private static IMeasuresSender buildSender(ReporterAttributes atts, PayloadSpool spool) {
+        IMeasuresSender sender = new ClientMeasuresSender(atts.libratoClientFactory.build(atts),
+                new MeasuresChunker(atts.chunkSize, atts.chunkBytes),
+                atts.postConcurrency,
+                spool);
+        if (atts.sendQueueSize > 0) {
+            sender = new AsyncMeasuresSender(sender,
+                    atts.sendQueueSize,
+                    atts.queueFullPolicy,
+                    atts.chunkBytes > 0 ? atts.chunkBytes : AsyncMeasuresSender.DEFAULT_MAX_COALESCED_BYTES,
+                    ReporterStats.registry(atts),
+                    atts.reporterName);
+        }
+        return sender;
+    }
+
+    private static StreamingPayloadEncoder buildStreamingEncoder(ReporterAttributes atts, PayloadSpool spool) {
+        return new StreamingPayloadEncoder(new PayloadPoster(atts, true),
+                spool,
+                atts.enableLegacy,
+                atts.enableTagging,
+                TagSet.of(atts.tags),
+                atts.source,
+                atts.chunkSize > 0 ? atts.chunkSize : DEFAULT_BATCH_SIZE,
+                atts.enableGzip,
+                atts.compressionLevel,
+                ReporterStats.registry(atts),
+                atts.reporterName);
+    }
+
+    @Override
+    public void stop() {
+        try {
+            super.stop();
+        } finally {
+            metricRegistry.removeListener(removalListener);
+            if (sender != null) {
+                sender.shutdown();
+            }
+            if (spoolReplayer != null) {
+                spoolReplayer.shutdown();
+            }
+            if (gaugeEvaluator != null) {
+                gaugeEvaluator.shutdown();
+            }
+            if (collectionPool != null) {
+                collectionPool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * The spool of failed posts, or null if spooling is not enabled
+     */
+    public PayloadSpool getSpool() {
+        return spoolReplayer != null ? spoolReplayer.getSpool() : null;
+    }
+
+    /**
+     * The reporter's measurements of its own cost, or null if they are not enabled
+     */
+    public ReporterStats getStats() {
+        return stats;
+    }
+
+    /**
+     * The tracker of count deltas, exposed so that its size can be monitored
+     */
+    public DeltaTracker getDeltaTracker() {
+        return deltaTracker;
+    }
+
+    /**
+     * The cache of resolved signals, exposed so that its hit rate can be monitored
+     */
+    public SignalCache getSignalCache() {
+        return signalCache;
+    }
+
     public void report(SortedMap<String, Gauge> gauges,
                        SortedMap<String, Counter> counters,
                        SortedMap<String, Histogram> histograms,
                        SortedMap<String, Meter> meters,
                        SortedMap<String, Timer> timers) {
         long epoch = System.currentTimeMillis() / 1000;
-        Measures measures = new Measures(source, Collections.<Tag>emptyList(), epoch, defaultPeriod);
-        addGauges(measures, gauges);
-        addCounters(measures, counters);
-        addHistograms(measures, histograms);
-        addMeters(measures, meters);
-        addTimers(measures, timers);
+        // reports are not concurrent, so no slot of a metric removed before this one is still in use
+        deltaTracker.sweep();
         try {
-            PostMeasuresResult postResults = client.postMeasures(measures);
-            for (PostResult result : postResults.results) {
-                if (result.isError()) {
-                    handlePostFailure(result);
+            if (streamingEncoder != null) {
+                streamingEncoder.begin(epoch, defaultPeriod);
+                collect(streamingEncoder, gauges, counters, histograms, meters, timers);
+                if (stats == null) {
+                    streamingEncoder.finish();
+                    return;
                 }
+                long tick = stats.tick();
+                streamingEncoder.finish();
+                stats.record(stats.encode, tick);
+                stats.measures.update(streamingEncoder.getMeasureCount());
+                return;
+            }
+            Measures measures = new Measures(source, Collections.<Tag>emptyList(), epoch, defaultPeriod);
+            if (collectionPool != null) {
+                measures = collectInParallel(measures, gauges, counters, histograms, meters, timers);
+            } else {
+                collect(new MeasuresSink(measures, enableLegacy, enableTagging, tags),
+                        gauges, counters, histograms, meters, timers);
+            }
+            if (stats != null) {
+                stats.measures.update(measures.getMeasures().size());
             }
-        } catch (Exception e) {
-            log.error("Failure to post to Librato", e);
+            sender.send(measures);
+        } finally {
+            removeExpired();
         }
     }
 
-    private void handlePostFailure(PostResult result) {
-        Exception exception = result.exception;
-        if (exception != null) {
-            handlePostFailure(exception);
+    private void collect(MeasureSink sink,
+                         SortedMap<String, Gauge> gauges,
+                         SortedMap<String, Counter> counters,
+                         SortedMap<String, Histogram> histograms,
+                         SortedMap<String, Meter> meters,
+                         SortedMap<String, Timer> timers) {
+        if (stats == null) {
+            addGauges(sink, gauges);
+            addCounters(sink, counters);
+            addHistograms(sink, histograms);
+            addMeters(sink, meters);
+            addTimers(sink, timers);
+            addRollups(sink);
             return;
         }
-        log.error("Failure to post to Librato: " + result.toString());
+        long tick = tick();
+        addGauges(sink, gauges);
+        tick = record(stats.collectGauges, tick);
+        addCounters(sink, counters);
+        tick = record(stats.collectCounters, tick);
+        addHistograms(sink, histograms);
+        tick = record(stats.collectHistograms, tick);
+        addMeters(sink, meters);
+        tick = record(stats.collectMeters, tick);
+        addTimers(sink, timers);
+        record(stats.collectTimers, tick);
+        addRollups(sink);
     }
 
-    private void handlePostFailure(Exception e) {
-        Throwable cause = getCause(e);
-        if (cause instanceof SocketTimeoutException) {
-            log.warn("Could not connect to Librato", cause);
-            return;
+    /**
+     * Collects slices of each metric type on the collection pool. The slices are cut from the sorted maps
+     * and their measures are joined in the same order, so the report is the same as a serial one. Each
+     * metric is in exactly one slice, so the per metric state of the delta tracker and the resolved
+     * signals is still only touched by one thread at a time.
+     */
+    private Measures collectInParallel(Measures report,
+                                       SortedMap<String, Gauge> gauges,
+                                       SortedMap<String, Counter> counters,
+                                       SortedMap<String, Histogram> histograms,
+                                       SortedMap<String, Meter> meters,
+                                       SortedMap<String, Timer> timers) {
+        long started = System.nanoTime();
+        List<Callable<List<IMeasure>>> slices = new ArrayList<Callable<List<IMeasure>>>();
+        slice(slices, report, MetricType.GAUGES, gauges);
+        slice(slices, report, MetricType.COUNTERS, counters);
+        slice(slices, report, MetricType.HISTOGRAMS, histograms);
+        slice(slices, report, MetricType.METERS, meters);
+        slice(slices, report, MetricType.TIMERS, timers);
+        List<IMeasure> merged = new ArrayList<IMeasure>();
+        try {
+            for (Future<List<IMeasure>> slice : collectionPool.invokeAll(slices)) {
+                merged.addAll(slice.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while collecting metrics", e);
+        } catch (ExecutionException e) {
+            // fail the report, as a metric which throws does when collecting serially
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        if (sketchRollups != null) {
+            // the slices have all been collected, so the rollups are complete
+            Measures rollups = new Measures(report.getSource(), report.getTags(), report.getEpoch(), report.getPeriod());
+            addRollups(new MeasuresSink(rollups, enableLegacy, enableTagging, tags));
+            merged.addAll(rollups.getMeasures());
         }
-        log.warn("Failure to post to Librato", e);
+        if (stats != null) {
+            stats.collectParallel.update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+        return new Measures(report, merged);
     }
 
-    private Throwable getCause(Exception e) {
-        Throwable cause = e;
-        while (cause.getCause() != null) {
-            cause = cause.getCause();
+    private <T extends Metric> void slice(List<Callable<List<IMeasure>>> slices,
+                                          Measures report,
+                                          MetricType type,
+                                          SortedMap<String, T> metrics) {
+        String from = null;
+        int count = 0;
+        for (String name : metrics.keySet()) {
+            if (count > 0 && count % COLLECTION_SLICE_SIZE == 0) {
+                slices.add(collectSlice(report, type, from == null ? metrics.headMap(name) : metrics.subMap(from, name)));
+                from = name;
+            }
+            count++;
         }
-        return cause;
+        if (count > 0) {
+            slices.add(collectSlice(report, type, from == null ? metrics : metrics.tailMap(from)));
+        }
+    }
+
+    private Callable<List<IMeasure>> collectSlice(final Measures report,
+                                                  final MetricType type,
+                                                  final SortedMap<String, ? extends Metric> slice) {
+        return new Callable<List<IMeasure>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public List<IMeasure> call() {
+                Measures measures = new Measures(report.getSource(), report.getTags(), report.getEpoch(), report.getPeriod());
+                MeasuresSink sink = new MeasuresSink(measures, enableLegacy, enableTagging, tags);
+                switch (type) {
+                    case GAUGES:
+                        addGauges(sink, (SortedMap<String, Gauge>) slice);
+                        break;
+                    case COUNTERS:
+                        addCounters(sink, (SortedMap<String, Counter>) slice);
+                        break;
+                    case HISTOGRAMS:
+                        addHistograms(sink, (SortedMap<String, Histogram>) slice);
+                        break;
+                    case METERS:
+                        addMeters(sink, (SortedMap<String, Meter>) slice);
+                        break;
+                    default:
+                        addTimers(sink, (SortedMap<String, Timer>) slice);
+                }
+                return measures.getMeasures();
+            }
+        };
+    }
+
+    private enum MetricType {
+        GAUGES, COUNTERS, HISTOGRAMS, METERS, TIMERS
+    }
+
+    private static ForkJoinPool buildCollectionPool(int parallelism) {
+        return new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("librato-collect-" + thread.getPoolIndex());
+                return thread;
+            }
+        }, null, false);
+    }
+
+    /**
+     * Only the streaming encoder posts while collecting, otherwise posts may be made concurrently by
+     * the send queue and must not be subtracted
+     */
+    private long tick() {
+        return streamingEncoder != null ? stats.tick() : System.nanoTime();
+    }
+
+    private long record(Timer timer, long tick) {
+        long now = tick();
+        timer.update(Math.max(0, now - tick), TimeUnit.NANOSECONDS);
+        return now;
     }
 
-    private void addGauges(Measures measures, SortedMap<String, Gauge> gauges) {
+    private void addGauges(MeasureSink sink, SortedMap<String, Gauge> gauges) {
+        if (gaugeEvaluator != null) {
+            double[] values = gaugeEvaluator.evaluate(gauges);
+            int i = 0;
+            for (String metricName : gauges.keySet()) {
+                double value = values[i++];
+                if (Numbers.isANumber(value)) {
+                    sink.add(resolve(metricName), null, value);
+                }
+            }
+            return;
+        }
         for (String metricName : gauges.keySet()) {
-            Gauge gauge = gauges.get(metricName);
-            Number number = Numbers.getNumberFrom(gauge.getValue());
-            if (number != null) {
-                addLibratoGauge(measures, convertToSignal(metricName), number.doubleValue());
+            double value = GaugeEvaluator.read(gauges.get(metricName));
+            if (Numbers.isANumber(value)) {
+                sink.add(resolve(metricName), null, value);
             }
         }
     }
 
-    private void addCounters(Measures measures, SortedMap<String, Counter> counters) {
+    private void addCounters(MeasureSink sink, SortedMap<String, Counter> counters) {
         for (String metricName : counters.keySet()) {
             Counter counter = counters.get(metricName);
             long count = counter.getCount();
-            addLibratoGauge(measures, convertToSignal(metricName), count);
+            ResolvedSignal signal = resolve(metricName);
+            if (idleSeriesTtl > 0) {
+                countDelta(metricName, signal, counter);
+                expireIfIdle(metricName, signal);
+            }
+            sink.add(signal, null, count);
         }
     }
 
-    private void addHistograms(Measures measures, SortedMap<String, Histogram> histograms) {
+    private void addHistograms(MeasureSink sink, SortedMap<String, Histogram> histograms) {
         for (String metricName : histograms.keySet()) {
             Histogram histogram = histograms.get(metricName);
-            if (skipMetric(metricName, histogram)) {
+            ResolvedSignal signal = resolve(metricName);
+            long countDelta = countDelta(metricName, signal, histogram);
+            expireIfIdle(metricName, signal);
+            if (skipMetric(countDelta)) {
                 continue;
             }
-            Long countDelta = deltaTracker.getDelta(metricName, histogram.getCount());
-            maybeAdd(measures, COUNT, metricName, countDelta);
+            maybeAdd(sink, COUNT, signal, countDelta);
             final boolean convertDurations = false;
-            addSampling(measures, metricName, histogram, convertDurations);
+            addSampling(sink, signal, histogram, convertDurations);
         }
     }
 
-    private void addMeters(Measures measures, SortedMap<String, Meter> meters) {
+    private void addMeters(MeasureSink sink, SortedMap<String, Meter> meters) {
         for (String metricName : meters.keySet()) {
             Meter meter = meters.get(metricName);
-            if (skipMetric(metricName, meter)) {
+            ResolvedSignal signal = resolve(metricName);
+            long countDelta = countDelta(metricName, signal, meter);
+            expireIfIdle(metricName, signal);
+            if (skipMetric(countDelta)) {
                 continue;
             }
-            addMeter(measures, metricName, meter);
+            addMeter(sink, signal, countDelta, meter);
         }
     }
 
-    private void addMeter(Measures measures, String metricName, Metered meter) {
-        Long countDelta = deltaTracker.getDelta(metricName, meter.getCount());
-        maybeAdd(measures, COUNT, metricName, countDelta);
-        maybeAdd(measures, RATE_MEAN, metricName, doConvertRate(meter.getMeanRate()));
-        maybeAdd(measures, RATE_1_MINUTE, metricName, doConvertRate(meter.getOneMinuteRate()));
-        maybeAdd(measures, RATE_5_MINUTE, metricName, doConvertRate(meter.getFiveMinuteRate()));
-        maybeAdd(measures, RATE_15_MINUTE, metricName, doConvertRate(meter.getFifteenMinuteRate()));
+    private void addMeter(MeasureSink sink, ResolvedSignal signal, long countDelta, Metered meter) {
+        maybeAdd(sink, COUNT, signal, countDelta);
+        maybeAdd(sink, RATE_MEAN, signal, doConvertRate(meter.getMeanRate()));
+        maybeAdd(sink, RATE_1_MINUTE, signal, doConvertRate(meter.getOneMinuteRate()));
+        maybeAdd(sink, RATE_5_MINUTE, signal, doConvertRate(meter.getFiveMinuteRate()));
+        maybeAdd(sink, RATE_15_MINUTE, signal, doConvertRate(meter.getFifteenMinuteRate()));
     }
 
-    private void addTimers(Measures measures, SortedMap<String, Timer> timers) {
+    private void addTimers(MeasureSink sink, SortedMap<String, Timer> timers) {
         for (String metricName : timers.keySet()) {
             Timer timer = timers.get(metricName);
-            if (skipMetric(metricName, timer)) {
+            ResolvedSignal signal = resolve(metricName);
+            long countDelta = countDelta(metricName, signal, timer);
+            expireIfIdle(metricName, signal);
+            if (skipMetric(countDelta)) {
                 continue;
             }
-            addMeter(measures, metricName, timer);
+            addMeter(sink, signal, countDelta, timer);
             final boolean convertDurations = true;
-            addSampling(measures, metricName, timer, convertDurations);
+            addSampling(sink, signal, timer, convertDurations);
         }
     }
 
-    private void addSampling(Measures measures, String name, Sampling sampling, boolean convert) {
+    /**
+     * Takes a snapshot only if a percentile, the complex gauge or a rollup needs it, since it may copy and
+     * sort the whole reservoir
+     */
+    private void addSampling(MeasureSink sink, ResolvedSignal signal, Sampling sampling, boolean convert) {
+        if (percentiles(signal).size() == 0 && omitComplexGauges && sketchRollups == null) {
+            return;
+        }
         final Snapshot snapshot = sampling.getSnapshot();
-        maybeAdd(measures, MEDIAN, name, doConvertDuration(snapshot.getMedian(), convert));
-        maybeAdd(measures, PCT_75, name, doConvertDuration(snapshot.get75thPercentile(), convert));
-        maybeAdd(measures, PCT_95, name, doConvertDuration(snapshot.get95thPercentile(), convert));
-        maybeAdd(measures, PCT_98, name, doConvertDuration(snapshot.get98thPercentile(), convert));
-        maybeAdd(measures, PCT_99, name, doConvertDuration(snapshot.get99thPercentile(), convert));
-        maybeAdd(measures, PCT_999, name, doConvertDuration(snapshot.get999thPercentile(), convert));
+        if (sketchRollups != null) {
+            rollUp(signal, snapshot, convert);
+        }
+        addSnapshot(sink, signal, snapshot, convert);
+    }
+
+    private void addSnapshot(MeasureSink sink, ResolvedSignal signal, Snapshot snapshot, boolean convert) {
+        PercentileSet percentiles = percentiles(signal);
+        if (percentiles.size() > 0) {
+            double[] values = getQuantiles(snapshot, percentiles);
+            for (int i = 0; i < values.length; i++) {
+                double value = doConvertDuration(values[i], convert);
+                if (percentiles.expandedMetrics[i] != null) {
+                    maybeAdd(sink, percentiles.expandedMetrics[i], signal, value);
+                } else if (Numbers.isANumber(value)) {
+                    sink.addPercentile(signal, percentiles.percentiles[i], value);
+                }
+            }
+        }
         if (!omitComplexGauges) {
             final double sum = snapshot.size() * snapshot.getMean();
             final long count = (long) snapshot.size();
             if (count > 0) {
                 try {
-                    addLibratoGauge(measures, convertToSignal(name),
+                    sink.add(signal,
                             doConvertDuration(sum, convert),
                             count,
                             doConvertDuration(snapshot.getMin(), convert),
@@ -213,39 +571,110 @@ public class LibratoReporter extends ScheduledReporter implements RateConverter,
         }
     }
 
-    private void addLibratoGauge(Measures measures, Signal signal, double sum, long count, double min, double max) {
-        GaugeMeasure gauge = new GaugeMeasure(signal.name, sum, count, min, max);
-        addLibratoGauge(measures, signal, gauge);
+    /**
+     * Merges the sketch of a series with a source or tags into the total for its metric name. An untagged
+     * series of that name keeps the total from being sent, as both would have the same name and tags.
+     */
+    private void rollUp(ResolvedSignal signal, Snapshot snapshot, boolean convert) {
+        String name = signal.signal.name;
+        if (signal.signal.source == null && signal.signal.tags.isEmpty()) {
+            rollup(name, convert).shadow();
+            return;
+        }
+        if (!(snapshot instanceof SketchSnapshot)) {
+            return;
+        }
+        try {
+            rollup(name, convert).merge(((SketchSnapshot) snapshot).getSketch());
+        } catch (IllegalArgumentException e) {
+            log.warn("Could not roll up {}", name, e);
+        }
     }
 
-    private void addLibratoGauge(Measures measures, Signal signal, double value) {
-        GaugeMeasure gauge = new GaugeMeasure(signal.name, value);
-        addLibratoGauge(measures, signal, gauge);
+    private SketchRollup rollup(String name, boolean convert) {
+        SketchRollup rollup = sketchRollups.get(name);
+        if (rollup == null) {
+            SketchRollup created = new SketchRollup(name, convert);
+            rollup = sketchRollups.putIfAbsent(name, created);
+            if (rollup == null) {
+                rollup = created;
+            }
+        }
+        return rollup;
     }
 
-    private void addLibratoGauge(Measures measures, Signal signal, GaugeMeasure gauge) {
-        if (this.enableLegacy) {
-            gauge.setSource(signal.source);
-            measures.add(gauge);
+    /**
+     * Sends the totals merged during the report, in name order, and forgets the ones nothing was merged into
+     */
+    private void addRollups(MeasureSink sink) {
+        if (sketchRollups == null) {
+            return;
         }
-        if (this.enableTagging) {
-            TaggedMeasure taggedMeasure = new TaggedMeasure(gauge);
-            for (Tag tag : signal.tags) {
-                taggedMeasure.addTag(tag);
-            }
-            boolean addedSourceTag = false;
-            if (!signal.overrideTags && signal.tags.isEmpty() && signal.source != null) {
-                taggedMeasure.addTag(new Tag("source", signal.source));
-                addedSourceTag = true;
+        for (Map.Entry<String, SketchRollup> entry : new TreeMap<String, SketchRollup>(sketchRollups).entrySet()) {
+            SketchRollup rollup = entry.getValue();
+            boolean shadowed = rollup.isShadowed();
+            DDSketch merged = rollup.take();
+            if (merged == null) {
+                if (!shadowed) {
+                    sketchRollups.remove(entry.getKey(), rollup);
+                }
+                continue;
             }
-            if (!signal.overrideTags) {
-                for (Tag tag : tags) {
-                    if (!addedSourceTag || !"source".equals(tag.name)) {
-                        taggedMeasure.addTag(tag);
-                    }
+            if (shadowed) {
+                if (!rollup.warned) {
+                    rollup.warned = true;
+                    log.warn("Not rolling up {}, which also has an untagged series of that name", entry.getKey());
                 }
+                continue;
             }
-            measures.add(taggedMeasure);
+            addSnapshot(sink, rollup.signal, new SketchSnapshot(merged), rollup.convert);
+        }
+    }
+
+    private PercentileSet percentiles(ResolvedSignal signal) {
+        if (metricPercentiles.isEmpty()) {
+            return percentiles;
+        }
+        if (signal.percentileSet == null) {
+            PercentileSet own = metricPercentiles.get(signal.signal.name);
+            signal.percentileSet = own != null ? own : percentiles;
+        }
+        return signal.percentileSet;
+    }
+
+    private static double[] getQuantiles(Snapshot snapshot, PercentileSet percentiles) {
+        if (snapshot instanceof MultiQuantileSnapshot) {
+            return ((MultiQuantileSnapshot) snapshot).getQuantiles(percentiles.quantiles);
+        }
+        double[] values = new double[percentiles.size()];
+        for (int i = 0; i < values.length; i++) {
+            ExpandedMetric expandedMetric = percentiles.expandedMetrics[i];
+            values[i] = expandedMetric != null
+                    ? getPercentile(snapshot, expandedMetric)
+                    : snapshot.getValue(percentiles.quantiles[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Goes through the named accessors, which a snapshot may override
+     */
+    private static double getPercentile(Snapshot snapshot, ExpandedMetric percentile) {
+        switch (percentile) {
+            case MEDIAN:
+                return snapshot.getMedian();
+            case PCT_75:
+                return snapshot.get75thPercentile();
+            case PCT_95:
+                return snapshot.get95thPercentile();
+            case PCT_98:
+                return snapshot.get98thPercentile();
+            case PCT_99:
+                return snapshot.get99thPercentile();
+            case PCT_999:
+                return snapshot.get999thPercentile();
+            default:
+                return snapshot.getValue(percentile.getQuantile());
         }
     }
 
@@ -263,42 +692,80 @@ public class LibratoReporter extends ScheduledReporter implements RateConverter,
         return prefix;
     }
 
-    private void maybeAdd(Measures measures, ExpandedMetric expandedMetric, String name, Number reading) {
+    private void maybeAdd(MeasureSink sink, ExpandedMetric expandedMetric, ResolvedSignal signal, double reading) {
         if (expansionConfig.isSet(expandedMetric)) {
             if (!Numbers.isANumber(reading)) {
                 return;
             }
-            Signal signal = convertToSignal(name, expandedMetric);
-            addLibratoGauge(measures, signal, reading.doubleValue());
+            sink.add(signal, expandedMetric, reading);
         }
     }
 
-    private Signal convertToSignal(String registryName) {
-        return convertToSignal(registryName, null);
+    ResolvedSignal resolve(String registryName) {
+        ResolvedSignal resolved = signalCache.get(registryName);
+        if (resolved == null) {
+            resolved = signalCache.put(registryName, resolveSignal(registryName));
+        }
+        return resolved;
     }
 
-    private Signal convertToSignal(final String registryName, ExpandedMetric expandedMetric) {
+    private Signal resolveSignal(String registryName) {
         SourceInformation sourceInfo = SourceInformation.from(sourceRegex, registryName);
         if (sourceInfo.source != null) {
             // this is a legacy source added metric
-            String metricName = sourceInfo.name;
-            if (expandedMetric != null) {
-                metricName = expandedMetric.buildMetricName(metricName);
-            }
-            metricName = addPrefix(metricName);
-            return new Signal(metricName, sourceInfo.source);
+            return new Signal(addPrefix(sourceInfo.name), sourceInfo.source);
         }
-
         Signal signal = Signal.decode(registryName);
-        if (expandedMetric != null) {
-            signal.name = expandedMetric.buildMetricName(signal.name);
-        }
         signal.name = addPrefix(signal.name);
         return signal;
     }
 
-    private boolean skipMetric(String name, Counting counting) {
-        return deleteIdleStats() && deltaTracker.peekDelta(name, counting.getCount()) == 0;
+    /**
+     * Computes the count delta and stores the new count in one step. A metric which is then skipped as
+     * idle stores the same count it had, so committing before deciding to skip changes nothing.
+     */
+    private long countDelta(String metricName, ResolvedSignal signal, Counting counting) {
+        if (signal.deltaSlot < 0) {
+            signal.deltaSlot = deltaTracker.slot(metricName);
+        }
+        return deltaTracker.peekAndCommit(signal.deltaSlot, counting.getCount());
+    }
+
+    private void expireIfIdle(String metricName, ResolvedSignal signal) {
+        if (idleSeriesTtl <= 0 || deltaTracker.idleCommits(signal.deltaSlot) < idleSeriesTtl) {
+            return;
+        }
+        if (signal.encoded == null) {
+            Signal decoded = Signal.decode(metricName);
+            signal.encoded = decoded.source != null || !decoded.tags.isEmpty();
+        }
+        if (signal.encoded) {
+            expired.add(metricName);
+        }
+    }
+
+    /**
+     * Removes the series found idle during the report. The registry listeners drop their deltas, cached
+     * signals and index entries, and the fluent helper forgets their encoded names.
+     */
+    private void removeExpired() {
+        String metricName;
+        while ((metricName = expired.poll()) != null) {
+            if (metricRegistry.remove(metricName)) {
+                Librato.nameCache.get().remove(Signal.decode(metricName));
+                if (stats != null) {
+                    stats.expired.inc();
+                }
+            }
+        }
+    }
+
+    private boolean skipMetric(long countDelta) {
+        boolean skip = deleteIdleStats() && countDelta == 0;
+        if (skip && stats != null) {
+            stats.skippedIdle.inc();
+        }
+        return skip;
     }
 
     private boolean deleteIdleStats() {
@@ -0,0 +1,16 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Gauge;
+
+/**
+ * A gauge whose value the reporter reads as a primitive long, without boxing it. Other reporters read
+ * it through {@link #getValue()} as usual.
+ */
+public abstract class LongGauge implements Gauge<Long> {
+    public abstract long getLongValue();
+
+    @Override
+    public Long getValue() {
+        return getLongValue();
+    }
+}
@@ -0,0 +1,23 @@
+package com.librato.metrics.reporter;
+
+/**
+ * Receives the values the reporter collects for one report.
+ */
+public interface MeasureSink {
+    /**
+     * Adds a single value
+     *
+     * @param expandedMetric the expanded metric the value is for, or null for the metric itself
+     */
+    void add(ResolvedSignal signal, ExpandedMetric expandedMetric, double value);
+
+    /**
+     * Adds a value for a configured percentile
+     */
+    void addPercentile(ResolvedSignal signal, Percentile percentile, double value);
+
+    /**
+     * Adds a complex gauge for the metric itself
+     */
+    void add(ResolvedSignal signal, double sum, long count, double min, double max);
+}
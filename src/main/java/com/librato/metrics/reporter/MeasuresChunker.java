@@ -0,0 +1,83 @@
+package com.librato.metrics.reporter;
+
+import com.librato.metrics.client.GaugeMeasure;
+import com.librato.metrics.client.IMeasure;
+import com.librato.metrics.client.Measures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits a report into chunks bounded by the number of measures and by an estimate of their encoded size.
+ */
+public class MeasuresChunker {
+    // the numbers, field names and punctuation of an encoded measure
+    static final int MEASURE_OVERHEAD_BYTES = 96;
+    private final int maxMeasures;
+    private final long maxBytes;
+
+    /**
+     * @param maxMeasures the maximum number of measures in a chunk, or zero for no limit
+     * @param maxBytes    the maximum estimated size of a chunk, or zero for no limit
+     */
+    public MeasuresChunker(int maxMeasures, long maxBytes) {
+        this.maxMeasures = maxMeasures;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The batch size a {@link com.librato.metrics.client.LibratoClient} needs to post any chunk in a single
+     * request, or zero if reports are not split
+     */
+    public int getClientBatchSize() {
+        if (maxMeasures > 0) {
+            return maxMeasures;
+        }
+        // a chunk bounded only by its size may hold any number of measures
+        return maxBytes > 0 ? Integer.MAX_VALUE : 0;
+    }
+
+    public List<Measures> chunk(Measures measures) {
+        List<IMeasure> all = measures.getMeasures();
+        if (maxBytes <= 0 && (maxMeasures <= 0 || all.size() <= maxMeasures)) {
+            return Collections.singletonList(measures);
+        }
+        List<Measures> chunks = new ArrayList<Measures>();
+        List<IMeasure> current = new ArrayList<IMeasure>();
+        long currentBytes = 0;
+        for (IMeasure measure : all) {
+            long bytes = maxBytes > 0 ? estimateBytes(measure) : 0;
+            boolean full = (maxMeasures > 0 && current.size() >= maxMeasures)
+                    || (maxBytes > 0 && currentBytes + bytes > maxBytes);
+            if (full && !current.isEmpty()) {
+                chunks.add(new Measures(measures, current));
+                current = new ArrayList<IMeasure>();
+                currentBytes = 0;
+            }
+            current.add(measure);
+            currentBytes += bytes;
+        }
+        if (!current.isEmpty()) {
+            chunks.add(new Measures(measures, current));
+        }
+        return chunks;
+    }
+
+    static long estimateBytes(IMeasure measure) {
+        if (measure instanceof GaugeMeasure) {
+            GaugeMeasure gauge = (GaugeMeasure) measure;
+            return MEASURE_OVERHEAD_BYTES + length(gauge.getName()) + length(gauge.getSource());
+        }
+        long bytes = MEASURE_OVERHEAD_BYTES;
+        for (Map.Entry<String, Object> entry : measure.toMap().entrySet()) {
+            bytes += entry.getKey().length() + String.valueOf(entry.getValue()).length();
+        }
+        return bytes;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
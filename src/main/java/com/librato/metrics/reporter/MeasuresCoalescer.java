@@ -0,0 +1,69 @@
+package com.librato.metrics.reporter;
+
+import com.librato.metrics.client.GaugeMeasure;
+import com.librato.metrics.client.IMeasure;
+import com.librato.metrics.client.Measures;
+import com.librato.metrics.client.Tag;
+import com.librato.metrics.client.TaggedMeasure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges two reports into one request. The measures of the older report keep its epoch as their own
+ * time, so they are neither restamped with the newer epoch nor replaced by the newer measures of the same
+ * series: a series in both reports is sent twice, once for each time, and no count delta is lost.
+ */
+public class MeasuresCoalescer {
+    public static Measures coalesce(Measures older, Measures newer) {
+        List<IMeasure> merged = new ArrayList<IMeasure>(older.getMeasures().size() + newer.getMeasures().size());
+        for (IMeasure measure : older.getMeasures()) {
+            merged.add(older.getEpoch() == null ? measure : withTime(measure, older.getEpoch()));
+        }
+        merged.addAll(newer.getMeasures());
+        return new Measures(newer, merged);
+    }
+
+    /**
+     * Stamps a measure with the time of its report, unless it already has a time of its own, as it does
+     * when it was coalesced before
+     */
+    static IMeasure withTime(IMeasure measure, long epoch) {
+        if (measure instanceof GaugeMeasure) {
+            GaugeMeasure gauge = (GaugeMeasure) measure;
+            return gauge.toMap().containsKey("measure_time") ? gauge : gauge.setTime(epoch);
+        }
+        if (measure instanceof TaggedMeasure) {
+            Map<String, Object> map = measure.toMap();
+            return map.containsKey("time") ? measure : retag(map, epoch);
+        }
+        return measure;
+    }
+
+    // a tagged measure cannot be given a time, but one copied from a gauge takes the time of the gauge
+    @SuppressWarnings("unchecked")
+    private static TaggedMeasure retag(Map<String, Object> map, long epoch) {
+        GaugeMeasure gauge = new GaugeMeasure(
+                (String) map.get("name"),
+                ((Number) map.get("sum")).doubleValue(),
+                ((Number) map.get("count")).longValue(),
+                ((Number) map.get("min")).doubleValue(),
+                ((Number) map.get("max")).doubleValue());
+        gauge.setTime(epoch);
+        if (map.get("period") != null) {
+            gauge.setPeriod(((Number) map.get("period")).intValue());
+        }
+        if (map.get("attributes") != null) {
+            gauge.setMetricAttributes((Map<String, Object>) map.get("attributes"));
+        }
+        TaggedMeasure tagged = new TaggedMeasure(gauge);
+        Map<String, String> tags = (Map<String, String>) map.get("tags");
+        if (tags != null) {
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                tagged.addTag(new Tag(tag.getKey(), tag.getValue()));
+            }
+        }
+        return tagged;
+    }
+}
@@ -0,0 +1,55 @@
+package com.librato.metrics.reporter;
+
+import com.librato.metrics.client.GaugeMeasure;
+import com.librato.metrics.client.Measures;
+import com.librato.metrics.client.Tag;
+import com.librato.metrics.client.TaggedMeasure;
+
+import java.util.List;
+
+/**
+ * Collects a report into a {@link Measures} for the {@link com.librato.metrics.client.LibratoClient}.
+ */
+public class MeasuresSink implements MeasureSink {
+    private final Measures measures;
+    private final boolean enableLegacy;
+    private final boolean enableTagging;
+    private final List<Tag> tags;
+
+    public MeasuresSink(Measures measures, boolean enableLegacy, boolean enableTagging, List<Tag> tags) {
+        this.measures = measures;
+        this.enableLegacy = enableLegacy;
+        this.enableTagging = enableTagging;
+        this.tags = tags;
+    }
+
+    public Measures getMeasures() {
+        return measures;
+    }
+
+    public void add(ResolvedSignal signal, ExpandedMetric expandedMetric, double value) {
+        add(signal, new GaugeMeasure(signal.get(expandedMetric).name, value));
+    }
+
+    public void addPercentile(ResolvedSignal signal, Percentile percentile, double value) {
+        add(signal, new GaugeMeasure(signal.getPercentile(percentile).name, value));
+    }
+
+    public void add(ResolvedSignal signal, double sum, long count, double min, double max) {
+        add(signal, new GaugeMeasure(signal.signal.name, sum, count, min, max));
+    }
+
+    private void add(ResolvedSignal signal, GaugeMeasure gauge) {
+        if (enableLegacy) {
+            gauge.setSource(signal.signal.source);
+            measures.add(gauge);
+        }
+        if (enableTagging) {
+            TaggedMeasure taggedMeasure = new TaggedMeasure(gauge);
+            for (Tag tag : signal.getMergedTags(tags)) {
+                taggedMeasure.addTag(tag);
+            }
+            measures.add(taggedMeasure);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A copy of the name to metric map of a registry, kept in sync through a listener, so that the fluent
+ * helper can look up existing metrics with a single probe of a {@link ConcurrentHashMap} instead of going
+ * through {@link MetricRegistry#getMetrics()}.
+ */
+public class MetricIndex extends MetricRemovalListener {
+    private static final Map<MetricRegistry, MetricIndex> indexes = new WeakHashMap<MetricRegistry, MetricIndex>();
+    // almost every application uses a single registry, which then never takes the lock
+    private static volatile MetricIndex last;
+    private final WeakReference<MetricRegistry> registry;
+    private final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+    private final AtomicLong removals = new AtomicLong();
+
+    /**
+     * Returns the index of a registry, creating it the first time it is asked for
+     */
+    public static MetricIndex of(MetricRegistry registry) {
+        MetricIndex index = last;
+        if (index != null && index.registry.get() == registry) {
+            return index;
+        }
+        synchronized (indexes) {
+            index = indexes.get(registry);
+            if (index == null) {
+                index = new MetricIndex(registry);
+                // replays the metrics already in the registry
+                registry.addListener(index);
+                indexes.put(registry, index);
+            }
+        }
+        last = index;
+        return index;
+    }
+
+    private MetricIndex(MetricRegistry registry) {
+        this.registry = new WeakReference<MetricRegistry>(registry);
+    }
+
+    public Metric get(String name) {
+        return metrics.get(name);
+    }
+
+    public int size() {
+        return metrics.size();
+    }
+
+    /**
+     * The number of metrics removed from the registry so far, which lets holders of metrics tell when
+     * theirs may have been removed
+     */
+    public long getRemovals() {
+        return removals.get();
+    }
+
+    @Override
+    public void onMetricRemoved(String name) {
+        metrics.remove(name);
+        removals.incrementAndGet();
+    }
+
+    @Override
+    public void onGaugeAdded(String name, Gauge<?> gauge) {
+        metrics.put(name, gauge);
+    }
+
+    @Override
+    public void onCounterAdded(String name, Counter counter) {
+        metrics.put(name, counter);
+    }
+
+    @Override
+    public void onHistogramAdded(String name, Histogram histogram) {
+        metrics.put(name, histogram);
+    }
+
+    @Override
+    public void onMeterAdded(String name, Meter meter) {
+        metrics.put(name, meter);
+    }
+
+    @Override
+    public void onTimerAdded(String name, Timer timer) {
+        metrics.put(name, timer);
+    }
+}
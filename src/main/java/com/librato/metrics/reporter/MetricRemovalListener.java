@@ -0,0 +1,35 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.MetricRegistryListener;
+
+/**
+ * Funnels the per type removal callbacks of a {@link MetricRegistryListener} into a single method.
+ */
+public abstract class MetricRemovalListener extends MetricRegistryListener.Base {
+    public abstract void onMetricRemoved(String name);
+
+    @Override
+    public void onGaugeRemoved(String name) {
+        onMetricRemoved(name);
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+        onMetricRemoved(name);
+    }
+
+    @Override
+    public void onHistogramRemoved(String name) {
+        onMetricRemoved(name);
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+        onMetricRemoved(name);
+    }
+
+    @Override
+    public void onTimerRemoved(String name) {
+        onMetricRemoved(name);
+    }
+}
@@ -0,0 +1,194 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Metric;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A fluent helper metric whose name, source, reservoir and tag names are fixed up front, so that only the
+ * tag values are given per call. Handles are kept in one nested map level per tag, keyed by the values
+ * themselves, so looking up a metric that was used before neither encodes a name nor allocates. New
+ * handles are registered the way {@link Librato} does, and are the same instances it returns.
+ *
+ * <pre>
+ * MetricTemplate&lt;Timer&gt; latency = Librato.metric("latency").timerTemplate("region", "method");
+ * latency.get(region, method).update(nanos, TimeUnit.NANOSECONDS);
+ * </pre>
+ *
+ * Tag values are compared with {@link Object#equals(Object)} and reported as {@link Object#toString()}.
+ * Whenever a metric is removed from the registry, the handles which are no longer registered are dropped
+ * and looked up again.
+ */
+public abstract class MetricTemplate<T extends Metric> {
+    private final Librato metric;
+    private final String[] tagNames;
+    private final ConcurrentMap<Object, Object> handles = new ConcurrentHashMap<Object, Object>();
+    // the name each handle is registered under, to tell which of them a removal took away
+    private final ConcurrentMap<Metric, String> names = new ConcurrentHashMap<Metric, String>();
+    private final MetricIndex index;
+    private volatile T untagged;
+    private volatile long removals;
+
+    MetricTemplate(Librato metric, String... tagNames) {
+        this.metric = metric;
+        this.tagNames = tagNames.clone();
+        this.index = MetricIndex.of(metric.registry);
+        this.removals = index.getRemovals();
+    }
+
+    /**
+     * Registers the metric with the tags of one set of values
+     */
+    abstract T register(Librato metric);
+
+    public T get() {
+        checkValues(0);
+        T result = untagged;
+        if (result == null) {
+            Librato copy = metric.copy();
+            result = untagged = register(copy);
+            names.put(result, copy.registeredName);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(Object value) {
+        checkValues(1);
+        Object handle = handles.get(value);
+        if (handle == null) {
+            return create(value);
+        }
+        return (T) handle;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(Object first, Object second) {
+        checkValues(2);
+        ConcurrentMap<Object, Object> level = (ConcurrentMap<Object, Object>) handles.get(first);
+        Object handle = level == null ? null : level.get(second);
+        if (handle == null) {
+            return create(first, second);
+        }
+        return (T) handle;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(Object first, Object second, Object third) {
+        checkValues(3);
+        ConcurrentMap<Object, Object> level = (ConcurrentMap<Object, Object>) handles.get(first);
+        level = level == null ? null : (ConcurrentMap<Object, Object>) level.get(second);
+        Object handle = level == null ? null : level.get(third);
+        if (handle == null) {
+            return create(first, second, third);
+        }
+        return (T) handle;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(Object first, Object second, Object third, Object fourth) {
+        checkValues(4);
+        ConcurrentMap<Object, Object> level = (ConcurrentMap<Object, Object>) handles.get(first);
+        level = level == null ? null : (ConcurrentMap<Object, Object>) level.get(second);
+        level = level == null ? null : (ConcurrentMap<Object, Object>) level.get(third);
+        Object handle = level == null ? null : level.get(fourth);
+        if (handle == null) {
+            return create(first, second, third, fourth);
+        }
+        return (T) handle;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(Object... values) {
+        checkValues(values.length);
+        Object node = handles;
+        for (Object value : values) {
+            node = ((ConcurrentMap<Object, Object>) node).get(value);
+            if (node == null) {
+                return create(values);
+            }
+        }
+        return (T) node;
+    }
+
+    public String[] getTagNames() {
+        return tagNames.clone();
+    }
+
+    @SuppressWarnings("unchecked")
+    private T create(Object... values) {
+        ConcurrentMap<Object, Object> level = handles;
+        for (int i = 0; i < values.length - 1; i++) {
+            ConcurrentMap<Object, Object> next = (ConcurrentMap<Object, Object>) level.get(values[i]);
+            if (next == null) {
+                ConcurrentMap<Object, Object> created = new ConcurrentHashMap<Object, Object>();
+                next = (ConcurrentMap<Object, Object>) level.putIfAbsent(values[i], created);
+                if (next == null) {
+                    next = created;
+                }
+            }
+            level = next;
+        }
+        Librato tagged = metric.copy();
+        for (int i = 0; i < values.length; i++) {
+            tagged.tag(tagNames[i], values[i]);
+        }
+        // racing threads get the same instance back from the registry
+        T result = register(tagged);
+        if (!tagged.overflowed) {
+            // overflow series are looked up again, so that rejected values do not grow the template
+            names.put(result, tagged.registeredName);
+            level.put(values[values.length - 1], result);
+        }
+        return result;
+    }
+
+    private void checkValues(int count) {
+        if (count != tagNames.length) {
+            throw new IllegalArgumentException("Expected values for " + Arrays.toString(tagNames) + " but got " + count);
+        }
+        if (index.getRemovals() != removals) {
+            dropRemoved();
+        }
+    }
+
+    /**
+     * Drops the handles which are no longer registered under their name, so that they are looked up
+     * again as needed, while the others stay
+     */
+    private synchronized void dropRemoved() {
+        long current = index.getRemovals();
+        if (current == removals) {
+            return;
+        }
+        T result = untagged;
+        if (result != null && !isRegistered(result)) {
+            untagged = null;
+        }
+        dropRemoved(handles, tagNames.length);
+        removals = current;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dropRemoved(ConcurrentMap<Object, Object> level, int depth) {
+        for (Map.Entry<Object, Object> entry : level.entrySet()) {
+            if (depth > 1) {
+                dropRemoved((ConcurrentMap<Object, Object>) entry.getValue(), depth - 1);
+            } else if (!isRegistered((Metric) entry.getValue())) {
+                level.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private boolean isRegistered(Metric handle) {
+        String name = names.get(handle);
+        if (name != null && index.get(name) == handle) {
+            return true;
+        }
+        names.remove(handle);
+        return false;
+    }
+}
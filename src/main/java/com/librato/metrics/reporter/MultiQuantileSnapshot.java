@@ -0,0 +1,14 @@
+package com.librato.metrics.reporter;
+
+/**
+ * A snapshot which computes several quantiles in one pass over its values, rather than one pass per
+ * quantile. The reporter uses it for all the percentiles of a metric when the snapshot supports it.
+ */
+public interface MultiQuantileSnapshot {
+    /**
+     * Returns the value at each quantile, as {@code getValue} would
+     *
+     * @param quantiles the quantiles, in ascending order
+     */
+    double[] getQuantiles(double[] quantiles);
+}
@@ -1,18 +1,37 @@
 package com.librato.metrics.reporter;
 
+/**
+ * Caches the names that signals are encoded to. Lookups do not lock, and concurrent misses on the same
+ * signal only encode it once, see {@link ClockCache}.
+ */
 public class NameCache {
-    private final LRU<Signal, String> cache;
+    private final ClockCache<Signal, String> cache;
 
     public NameCache(int maxSize) {
-        this.cache = new LRU<Signal, String>(maxSize);
+        this.cache = new ClockCache<Signal, String>(maxSize);
     }
 
     public String get(Signal signal, Supplier<String> fullNameSupplier) {
-        String result = cache.get(signal);
-        if (result == null) {
-            result = fullNameSupplier.get();
-            cache.set(signal, result);
-        }
-        return result;
+        return cache.get(signal, fullNameSupplier);
+    }
+
+    public void remove(Signal signal) {
+        cache.remove(signal);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    public long getEvictions() {
+        return cache.getEvictions();
     }
 }
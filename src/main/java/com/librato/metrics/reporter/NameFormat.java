@@ -0,0 +1,28 @@
+package com.librato.metrics.reporter;
+
+/**
+ * How the fluent helper encodes the source and tags of a {@link Signal} into a registry name. Names in
+ * either format are read back by {@link Signal#decode(String)}, whichever format is currently selected.
+ */
+public enum NameFormat {
+    /**
+     * The signal serialized as a JSON object, which is what older versions registered
+     */
+    JSON {
+        @Override
+        public String encode(Signal signal) {
+            return Json.serialize(signal);
+        }
+    },
+    /**
+     * A shorter delimited form, which is encoded and decoded without Jackson, see {@link CompactName}
+     */
+    COMPACT {
+        @Override
+        public String encode(Signal signal) {
+            return CompactName.encode(signal);
+        }
+    };
+
+    public abstract String encode(Signal signal);
+}
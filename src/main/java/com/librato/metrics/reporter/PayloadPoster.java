@@ -0,0 +1,89 @@
+package com.librato.metrics.reporter;
+
+import com.librato.metrics.client.Authorization;
+import com.librato.metrics.client.Duration;
+import com.librato.metrics.client.HttpResponse;
+import com.librato.metrics.client.IPoster;
+import com.librato.metrics.client.LibratoClient;
+import com.librato.metrics.client.URIs;
+import com.librato.metrics.client.Versions;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts payloads that have already been encoded to the Librato API, bypassing the {@link LibratoClient}.
+ * Used for payloads which are replayed from the spool and for those written by the
+ * {@link StreamingPayloadEncoder}.
+ */
+public class PayloadPoster {
+    static final String SD_PATH = "/v1/metrics";
+    static final String MD_PATH = "/v1/measurements";
+    private final IPoster poster;
+    private final String baseUrl;
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final Map<String, String> headers;
+    private final Map<String, String> gzipHeaders;
+
+    public PayloadPoster(ReporterAttributes atts) {
+        this(atts, false);
+    }
+
+    /**
+     * @param reportPosts true if the poster is used to send reports, rather than to replay them
+     */
+    public PayloadPoster(ReporterAttributes atts, boolean reportPosts) {
+        this(DefaultLibratoClientFactory.buildPoster(atts, reportPosts),
+                atts.url,
+                atts.connectTimeout != null ? atts.connectTimeout : new Duration(5, TimeUnit.SECONDS),
+                atts.readTimeout != null ? atts.readTimeout : new Duration(10, TimeUnit.SECONDS),
+                buildHeaders(atts));
+    }
+
+    PayloadPoster(IPoster poster, String url, Duration connectTimeout, Duration readTimeout, Map<String, String> headers) {
+        this.poster = poster;
+        this.baseUrl = URIs.removePath(URI.create(url)).toString();
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.headers = Collections.unmodifiableMap(headers);
+        Map<String, String> gzipHeaders = new HashMap<String, String>(headers);
+        gzipHeaders.put("Content-Encoding", "gzip");
+        this.gzipHeaders = Collections.unmodifiableMap(gzipHeaders);
+    }
+
+    private static Map<String, String> buildHeaders(ReporterAttributes atts) {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Content-Type", "application/json");
+        headers.put("Authorization", Authorization.buildAuthHeader(atts.email, atts.token));
+        headers.put("User-Agent", String.format("%s librato-java/%s",
+                Agent.AGENT_IDENTIFIER,
+                Versions.getVersion("META-INF/maven/com.librato.metrics/librato-java/pom.properties",
+                        LibratoClient.class)));
+        return headers;
+    }
+
+    /**
+     * @param md      true for a tagged (multi-dimensional) payload, false for a legacy one
+     * @param payload the encoded JSON body
+     */
+    public HttpResponse post(boolean md, byte[] payload) {
+        return post(md, false, payload);
+    }
+
+    /**
+     * @param md      true for a tagged (multi-dimensional) payload, false for a legacy one
+     * @param gzip    true if the payload is gzip compressed
+     * @param payload the encoded JSON body
+     */
+    public HttpResponse post(boolean md, boolean gzip, byte[] payload) {
+        return poster.post(baseUrl + (md ? MD_PATH : SD_PATH),
+                connectTimeout,
+                readTimeout,
+                gzip ? gzipHeaders : headers,
+                payload);
+    }
+}
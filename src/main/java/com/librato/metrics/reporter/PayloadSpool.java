@@ -0,0 +1,241 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An append-only log of payloads which could not be posted, kept in memory mapped segment files so that
+ * it does not grow the heap. The total size of the segments is bounded, and payloads older than the
+ * maximum age are discarded instead of being replayed.
+ */
+public class PayloadSpool {
+    private static final Logger log = LoggerFactory.getLogger(PayloadSpool.class);
+    private static final String SUFFIX = ".spool";
+    private final File directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final long maxAgeSeconds;
+    private final Clock clock;
+    private final LinkedList<SpoolSegment> segments = new LinkedList<SpoolSegment>();
+    private final AtomicLong spooled = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private long nextSequence;
+    private long bytes;
+    private SpoolSegment writeSegment;
+
+    public PayloadSpool(File directory, int segmentBytes, long maxBytes, long maxAge, TimeUnit unit) throws IOException {
+        this(directory, segmentBytes, maxBytes, maxAge, unit, Clock.defaultClock());
+    }
+
+    PayloadSpool(File directory, int segmentBytes, long maxBytes, long maxAge, TimeUnit unit, Clock clock) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.maxAgeSeconds = unit.toSeconds(maxAge);
+        this.clock = clock;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create spool directory " + directory);
+        }
+        openExistingSegments();
+    }
+
+    /**
+     * Adds a payload to the end of the log
+     *
+     * @param epoch the epoch, in seconds, of the report the payload was built from
+     */
+    public void append(long epoch, boolean md, byte[] payload) {
+        append(epoch, md, false, payload);
+    }
+
+    /**
+     * Adds a payload to the end of the log
+     *
+     * @param epoch the epoch, in seconds, of the report the payload was built from
+     * @param gzip  true if the payload is gzip compressed
+     */
+    public synchronized void append(long epoch, boolean md, boolean gzip, byte[] payload) {
+        if (payload == null || payload.length == 0) {
+            return;
+        }
+        try {
+            if (writeSegment == null || !writeSegment.append(epoch, md, gzip, payload)) {
+                int capacity = Math.max(segmentBytes, SpoolSegment.recordBytes(payload));
+                writeSegment = newSegment(capacity);
+                writeSegment.append(epoch, md, gzip, payload);
+                enforceMaxBytes();
+            }
+            spooled.incrementAndGet();
+        } catch (IOException e) {
+            log.error("Could not spool payload", e);
+        }
+    }
+
+    /**
+     * Returns the oldest payload that has not been replayed, discarding any which are too old
+     */
+    public synchronized SpoolRecord peek() {
+        long oldestEpoch = clock.getTime() / 1000 - maxAgeSeconds;
+        while (!segments.isEmpty()) {
+            SpoolSegment segment = segments.getFirst();
+            SpoolRecord record = segment.peek();
+            if (record == null) {
+                if (segment == writeSegment) {
+                    return null;
+                }
+                removeOldestSegment();
+                continue;
+            }
+            if (record.epoch >= oldestEpoch) {
+                return record;
+            }
+            segment.consume();
+            evicted.incrementAndGet();
+        }
+        return null;
+    }
+
+    /**
+     * Marks the oldest payload as handled. Only safe when nothing is appended between {@link #peek()} and
+     * this call, use {@link #consume(SpoolRecord, boolean)} otherwise.
+     *
+     * @param sent false if the payload was discarded rather than sent
+     */
+    public synchronized void consume(boolean sent) {
+        if (segments.isEmpty()) {
+            return;
+        }
+        segments.getFirst().consume();
+        count(sent);
+    }
+
+    /**
+     * Marks a payload returned by {@link #peek()} as handled. Does nothing if its segment was discarded
+     * in the meantime to stay within the maximum size, since it was counted as evicted then.
+     *
+     * @param sent false if the payload was discarded rather than sent
+     */
+    public synchronized void consume(SpoolRecord record, boolean sent) {
+        if (record.segment == null || !segments.contains(record.segment)) {
+            return;
+        }
+        if (record.segment.consume(record.position)) {
+            count(sent);
+        }
+    }
+
+    private void count(boolean sent) {
+        if (sent) {
+            replayed.incrementAndGet();
+        } else {
+            evicted.incrementAndGet();
+        }
+    }
+
+    public synchronized void close() {
+        for (SpoolSegment segment : segments) {
+            segment.flush();
+        }
+    }
+
+    /**
+     * The number of payloads waiting to be replayed
+     */
+    public synchronized long getPending() {
+        long pending = 0;
+        for (SpoolSegment segment : segments) {
+            pending += segment.getPending();
+        }
+        return pending;
+    }
+
+    /**
+     * The disk space taken by the segment files
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getSpooled() {
+        return spooled.get();
+    }
+
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    /**
+     * The number of payloads discarded because they were too old, did not fit on disk or were rejected
+     */
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    private SpoolSegment newSegment(int capacity) throws IOException {
+        File file = new File(directory, String.format("%020d%s", nextSequence++, SUFFIX));
+        SpoolSegment segment = SpoolSegment.create(file, capacity);
+        segments.addLast(segment);
+        bytes += segment.getCapacity();
+        return segment;
+    }
+
+    private void enforceMaxBytes() {
+        while (bytes > maxBytes && segments.size() > 1) {
+            SpoolSegment oldest = segments.getFirst();
+            evicted.addAndGet(oldest.getPending());
+            log.warn("Spool exceeds {} bytes, discarding {} payloads", maxBytes, oldest.getPending());
+            removeOldestSegment();
+        }
+    }
+
+    private void removeOldestSegment() {
+        SpoolSegment oldest = segments.removeFirst();
+        bytes -= oldest.getCapacity();
+        if (oldest == writeSegment) {
+            writeSegment = null;
+        }
+        oldest.delete();
+    }
+
+    private void openExistingSegments() throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                long sequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                nextSequence = Math.max(nextSequence, sequence + 1);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            SpoolSegment segment = SpoolSegment.open(file);
+            if (segment.isExhausted()) {
+                segment.delete();
+                continue;
+            }
+            segments.addLast(segment);
+            bytes += segment.getCapacity();
+        }
+        // new payloads always go to a new segment
+        writeSegment = null;
+        enforceMaxBytes();
+    }
+}
@@ -0,0 +1,58 @@
+package com.librato.metrics.reporter;
+
+import java.math.BigDecimal;
+
+/**
+ * A percentile reported in addition to those of {@link ExpandedMetric}, configured with
+ * {@link ReporterBuilder#setPercentiles(double...)}. From 10% up its name suffix is derived from the
+ * quantile the way the standard ones are, so 0.9 is reported as {@code 90th} and 0.9999 as
+ * {@code 9999th}. Below 10% the digits alone would be ambiguous, 0.099 would read as the 99th, so those
+ * keep their decimal point as an underscore behind a {@code p}: 0.01 is {@code p1} and 0.099 is
+ * {@code p9_9}. Distinct quantiles therefore always have distinct suffixes.
+ */
+public final class Percentile {
+    final double quantile;
+    final String suffix;
+    // the position of this percentile among those of its reporter, under which signals cache its names
+    final int index;
+
+    Percentile(double quantile, int index) {
+        this.quantile = checkQuantile(quantile);
+        this.suffix = suffix(quantile);
+        this.index = index;
+    }
+
+    public double getQuantile() {
+        return quantile;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    public String buildMetricName(String metric) {
+        return metric + "." + suffix;
+    }
+
+    static double checkQuantile(double quantile) {
+        if (!(quantile > 0 && quantile <= 1)) {
+            throw new IllegalArgumentException(quantile + " is not in (0..1]");
+        }
+        return quantile;
+    }
+
+    static String suffix(double quantile) {
+        BigDecimal percent = BigDecimal.valueOf(quantile).movePointRight(2).stripTrailingZeros();
+        String digits = percent.toPlainString();
+        if (percent.compareTo(BigDecimal.TEN) < 0) {
+            return "p" + digits.replace('.', '_');
+        }
+        // the integer part has two digits, or is 100 with none after it, so dropping the point is unambiguous
+        return digits.replace(".", "") + "th";
+    }
+
+    @Override
+    public String toString() {
+        return suffix;
+    }
+}
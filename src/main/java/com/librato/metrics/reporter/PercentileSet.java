@@ -0,0 +1,64 @@
+package com.librato.metrics.reporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The percentiles the reporter sends for a metric: the ones of {@link ExpandedMetric} which are enabled,
+ * and any others configured, in ascending order so that a snapshot can compute them all in one pass. A
+ * configured percentile with the quantile of an enabled standard one is only sent once, under the
+ * standard name.
+ */
+class PercentileSet {
+    final double[] quantiles;
+    // entry i is the standard percentile at quantiles[i], or null if it is a configured one
+    final ExpandedMetric[] expandedMetrics;
+    // entry i is the configured percentile at quantiles[i], or null if it is a standard one
+    final Percentile[] percentiles;
+
+    PercentileSet(MetricExpansionConfig expansionConfig, List<Percentile> configured) {
+        TreeMap<Double, Object> byQuantile = new TreeMap<Double, Object>();
+        for (ExpandedMetric expandedMetric : ExpandedMetric.values()) {
+            if (!Double.isNaN(expandedMetric.getQuantile()) && expansionConfig.isSet(expandedMetric)) {
+                byQuantile.put(expandedMetric.getQuantile(), expandedMetric);
+            }
+        }
+        for (Percentile percentile : configured) {
+            if (!byQuantile.containsKey(percentile.quantile)) {
+                byQuantile.put(percentile.quantile, percentile);
+            }
+        }
+        this.quantiles = new double[byQuantile.size()];
+        this.expandedMetrics = new ExpandedMetric[byQuantile.size()];
+        this.percentiles = new Percentile[byQuantile.size()];
+        int i = 0;
+        for (Map.Entry<Double, Object> entry : byQuantile.entrySet()) {
+            quantiles[i] = entry.getKey();
+            if (entry.getValue() instanceof ExpandedMetric) {
+                expandedMetrics[i] = (ExpandedMetric) entry.getValue();
+            } else {
+                percentiles[i] = (Percentile) entry.getValue();
+            }
+            i++;
+        }
+    }
+
+    int size() {
+        return quantiles.length;
+    }
+
+    /**
+     * Builds the percentiles for quantiles, numbering them from the first index
+     */
+    static List<Percentile> percentiles(double[] quantiles, int firstIndex) {
+        List<Percentile> percentiles = new ArrayList<Percentile>();
+        if (quantiles != null) {
+            for (double quantile : quantiles) {
+                percentiles.add(new Percentile(quantile, firstIndex + percentiles.size()));
+            }
+        }
+        return percentiles;
+    }
+}
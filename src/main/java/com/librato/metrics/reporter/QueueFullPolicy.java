@@ -0,0 +1,22 @@
+package com.librato.metrics.reporter;
+
+/**
+ * What the {@link AsyncMeasuresSender} does with a new report when its queue is full.
+ */
+public enum QueueFullPolicy {
+    /**
+     * Discards the oldest queued report to make room for the new one
+     */
+    DROP_OLDEST,
+    /**
+     * Merges the new report into the most recently queued one, so that the reports are sent in fewer
+     * requests. Every measure is kept under the time of its own report, so nothing is lost. Once the
+     * merged report would grow past the chunk size in bytes, or 4 MB estimated when reports are not
+     * chunked, the oldest report is dropped instead, as with {@link #DROP_OLDEST}.
+     */
+    COALESCE,
+    /**
+     * Blocks the reporter thread until there is room in the queue
+     */
+    BLOCK
+}
@@ -6,10 +6,14 @@ import com.librato.metrics.client.Duration;
 import com.librato.metrics.client.IPoster;
 import com.librato.metrics.client.Tag;
 
+import java.io.File;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 public class ReporterAttributes {
     String url = "https://metrics-api.librato.com";
@@ -36,4 +40,31 @@ public class ReporterAttributes {
     RateConverter rateConverter;
     DurationConverter durationConverter;
     IPoster poster;
+    int signalCacheSize = 100000;
+    int sendQueueSize;
+    QueueFullPolicy queueFullPolicy = QueueFullPolicy.DROP_OLDEST;
+    int chunkSize;
+    long chunkBytes;
+    int postConcurrency = 1;
+    File spoolDirectory;
+    int spoolSegmentBytes = 4 * 1024 * 1024;
+    long spoolMaxBytes = 256L * 1024 * 1024;
+    Duration spoolMaxAge = new Duration(1, TimeUnit.HOURS);
+    int spoolReplayRate = 10;
+    boolean enableStreaming;
+    boolean enableGzip;
+    int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    NameFormat nameFormat;
+    int maxSeriesPerMetric;
+    int idleSeriesTtl;
+    int gaugeThreads;
+    int collectionParallelism;
+    boolean enableSketchRollups;
+    double[] percentiles;
+    Map<String, double[]> metricPercentiles = new HashMap<String, double[]>();
+    Duration gaugeTimeout = new Duration(1, TimeUnit.SECONDS);
+    boolean enableStats;
+    MetricRegistry statsRegistry;
+    // set by the reporter when stats are enabled, so that the posters it builds can record into them
+    ReporterStats stats;
 }
@@ -6,6 +6,7 @@ import com.librato.metrics.client.Duration;
 import com.librato.metrics.client.IPoster;
 import com.librato.metrics.client.Tag;
 
+import java.io.File;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
@@ -121,4 +122,229 @@ public class ReporterBuilder {
         this.atts.poster = poster;
         return this;
     }
+
+    /**
+     * Sets the number of resolved metric names the reporter keeps, 100000 by default. This should be at
+     * least the number of metrics in the registry, otherwise names are decoded again on every report.
+     */
+    public ReporterBuilder setSignalCacheSize(int size) {
+        this.atts.signalCacheSize = size;
+        return this;
+    }
+
+    /**
+     * Posts reports from a dedicated thread, holding up to this many reports that are waiting to be
+     * sent. Zero, the default, posts on the reporter thread.
+     */
+    public ReporterBuilder setSendQueueSize(int size) {
+        this.atts.sendQueueSize = size;
+        return this;
+    }
+
+    public ReporterBuilder setQueueFullPolicy(QueueFullPolicy policy) {
+        this.atts.queueFullPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Splits reports into chunks of at most this many measures. This is also used as the batch size of
+     * the default Librato client, so each chunk goes out as a single request.
+     */
+    public ReporterBuilder setChunkSize(int measures) {
+        this.atts.chunkSize = measures;
+        return this;
+    }
+
+    /**
+     * Splits reports into chunks whose estimated encoded size is at most this many bytes. Each chunk goes
+     * out as a single request, however many measures it holds.
+     */
+    public ReporterBuilder setChunkBytes(long bytes) {
+        this.atts.chunkBytes = bytes;
+        return this;
+    }
+
+    /**
+     * Sets the number of chunks that are posted concurrently
+     */
+    public ReporterBuilder setPostConcurrency(int concurrency) {
+        this.atts.postConcurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Keeps payloads which could not be posted in memory mapped files in this directory and replays
+     * them in the background once the API is reachable again.
+     */
+    public ReporterBuilder setSpoolDirectory(File directory) {
+        this.atts.spoolDirectory = directory;
+        return this;
+    }
+
+    public ReporterBuilder setSpoolSegmentBytes(int bytes) {
+        this.atts.spoolSegmentBytes = bytes;
+        return this;
+    }
+
+    /**
+     * Bounds the disk space used by the spool, the oldest payloads are discarded first
+     */
+    public ReporterBuilder setSpoolMaxBytes(long bytes) {
+        this.atts.spoolMaxBytes = bytes;
+        return this;
+    }
+
+    /**
+     * Payloads older than this are discarded instead of being replayed
+     */
+    public ReporterBuilder setSpoolMaxAge(long time, TimeUnit unit) {
+        this.atts.spoolMaxAge = new Duration(time, unit);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of spooled payloads replayed per second
+     */
+    public ReporterBuilder setSpoolReplayRate(int payloadsPerSecond) {
+        this.atts.spoolReplayRate = payloadsPerSecond;
+        return this;
+    }
+
+    /**
+     * Writes each report directly into reusable JSON buffers and posts them, rather than building
+     * measures for the client to serialize. Posts are then made on the reporter thread, so the send
+     * queue and post concurrency settings do not apply. The chunk size still sets the batch size.
+     */
+    public ReporterBuilder setEnableStreaming(boolean value) {
+        this.atts.enableStreaming = value;
+        return this;
+    }
+
+    /**
+     * Gzips request bodies. The streaming encoder compresses as it writes, otherwise the client's payloads
+     * are compressed before they are posted. The bytes before and after compression are counted in the
+     * registry as {@code <name>.compression.uncompressedBytes} and {@code <name>.compression.compressedBytes}.
+     */
+    public ReporterBuilder setEnableGzip(boolean value) {
+        this.atts.enableGzip = value;
+        return this;
+    }
+
+    /**
+     * Sets the format the fluent helper encodes sources and tags into registry names with, see
+     * {@link Librato#nameFormat}. The reporter reads names in any format.
+     */
+    public ReporterBuilder setNameFormat(NameFormat format) {
+        this.atts.nameFormat = format;
+        return this;
+    }
+
+    /**
+     * Limits the number of distinct source and tag combinations the fluent helper registers per metric
+     * name. Combinations past the limit are reported as one series with the source {@code overflow}, or
+     * the tag {@code cardinality=overflow}, and counted in {@code <name>.cardinality.rejected}. See
+     * {@link CardinalityLimiter}.
+     */
+    public ReporterBuilder setMaxSeriesPerMetric(int maxSeries) {
+        this.atts.maxSeriesPerMetric = maxSeries;
+        return this;
+    }
+
+    /**
+     * Removes series registered through the fluent helper from the registry once their count has not
+     * changed for the given number of reports. Looking such a series up again through the helper registers
+     * a new one. Metrics registered under plain names are never removed.
+     */
+    public ReporterBuilder setIdleSeriesTtl(int reports) {
+        this.atts.idleSeriesTtl = reports;
+        return this;
+    }
+
+    /**
+     * Reads gauges on a pool of this many threads rather than on the reporter thread, skipping those which
+     * take longer than the gauge timeout. See {@link GaugeEvaluator}.
+     */
+    public ReporterBuilder setGaugeThreads(int threads) {
+        this.atts.gaugeThreads = threads;
+        return this;
+    }
+
+    /**
+     * Sets how long a gauge may take to read when gauges are read on their own threads, one second by default
+     */
+    public ReporterBuilder setGaugeTimeout(long timeout, TimeUnit unit) {
+        this.atts.gaugeTimeout = new Duration(timeout, unit);
+        return this;
+    }
+
+    /**
+     * Collects metrics on a fork-join pool of this many threads, in slices of each metric type, which
+     * speeds up reports of very large registries. The report is the same as when collecting serially.
+     * Does not apply with the streaming encoder, which always collects serially.
+     */
+    public ReporterBuilder setCollectionParallelism(int parallelism) {
+        this.atts.collectionParallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Sends these percentiles of histograms and timers as well as those enabled in the expansion config,
+     * e.g. 0.9 and 0.9999 as {@code 90th} and {@code 9999th}
+     */
+    public ReporterBuilder setPercentiles(double... quantiles) {
+        for (double quantile : quantiles) {
+            Percentile.checkQuantile(quantile);
+        }
+        this.atts.percentiles = quantiles.clone();
+        return this;
+    }
+
+    /**
+     * Sends these percentiles for one metric, by its name without the prefix, instead of those set with
+     * {@link #setPercentiles(double...)}
+     */
+    public ReporterBuilder setPercentiles(String metricName, double... quantiles) {
+        for (double quantile : quantiles) {
+            Percentile.checkQuantile(quantile);
+        }
+        this.atts.metricPercentiles.put(metricName, quantiles.clone());
+        return this;
+    }
+
+    /**
+     * Sends, for every metric whose series with a source or tags use a {@link SketchReservoir}, an
+     * untagged series with the percentiles and summary of all of them together. The sketches are merged,
+     * so the percentiles are as accurate as those of each series, without keeping any samples. A metric
+     * which also has an untagged series of its own is not rolled up.
+     */
+    public ReporterBuilder setEnableSketchRollups(boolean enableSketchRollups) {
+        this.atts.enableSketchRollups = enableSketchRollups;
+        return this;
+    }
+
+    /**
+     * Records the reporter's own cost: collection and encoding times, post latency, payload sizes,
+     * failures by cause, measures per report and skipped idle metrics. See {@link ReporterStats}.
+     */
+    public ReporterBuilder setEnableStats(boolean value) {
+        this.atts.enableStats = value;
+        return this;
+    }
+
+    /**
+     * Sets the registry that the reporter's own metrics are recorded in, including the send queue and
+     * compression metrics. Defaults to the registry being reported, in which case they are reported too.
+     */
+    public ReporterBuilder setStatsRegistry(MetricRegistry registry) {
+        this.atts.statsRegistry = registry;
+        return this;
+    }
+
+    /**
+     * Sets the gzip compression level, from 0 (none) to 9 (best), or -1 for the default
+     */
+    public ReporterBuilder setCompressionLevel(int level) {
+        this.atts.compressionLevel = GzipPoster.checkLevel(level);
+        return this;
+    }
 }
@@ -0,0 +1,99 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The reporter's measurements of its own cost, all named under the reporter's name:
+ * <ul>
+ * <li>{@code collect.gauges}, {@code collect.counters}, ... the time spent collecting each metric type.
+ * With the streaming encoder this includes encoding, which happens as values are collected.</li>
+ * <li>{@code collect.parallel} the time spent collecting all types, when collecting in parallel</li>
+ * <li>{@code encode} the time the streaming encoder spends finishing the payloads of a report. Only
+ * the streaming encoder reports it: the {@link com.librato.metrics.client.LibratoClient} builds each
+ * payload on its own threads right before posting it, where that cannot be told apart from the post.</li>
+ * <li>{@code post.latency} and {@code post.bytes} for each request made</li>
+ * <li>{@code post.failures.<cause>} requests which failed, by status code or exception</li>
+ * <li>{@code report.measures} the number of measures in each report</li>
+ * <li>{@code report.skippedIdle} metrics which were not reported because they were idle</li>
+ * <li>{@code report.expired} idle series which were removed from the registry</li>
+ * </ul>
+ * Time spent posting is excluded from the collection and encoding times.
+ */
+public class ReporterStats {
+    private final MetricRegistry registry;
+    private final String prefix;
+    private final AtomicLong postNanos = new AtomicLong();
+    final Timer collectGauges;
+    final Timer collectCounters;
+    final Timer collectHistograms;
+    final Timer collectMeters;
+    final Timer collectTimers;
+    final Timer collectParallel;
+    final Timer encode;
+    final Timer postLatency;
+    final Histogram postBytes;
+    final Histogram measures;
+    final Counter skippedIdle;
+    final Counter expired;
+
+    public ReporterStats(MetricRegistry registry, String prefix) {
+        this.registry = registry;
+        this.prefix = prefix;
+        this.collectGauges = registry.timer(name("collect", "gauges"));
+        this.collectCounters = registry.timer(name("collect", "counters"));
+        this.collectHistograms = registry.timer(name("collect", "histograms"));
+        this.collectMeters = registry.timer(name("collect", "meters"));
+        this.collectTimers = registry.timer(name("collect", "timers"));
+        this.collectParallel = registry.timer(name("collect", "parallel"));
+        this.encode = registry.timer(name("encode"));
+        this.postLatency = registry.timer(name("post", "latency"));
+        this.postBytes = registry.histogram(name("post", "bytes"));
+        this.measures = registry.histogram(name("report", "measures"));
+        this.skippedIdle = registry.counter(name("report", "skippedIdle"));
+        this.expired = registry.counter(name("report", "expired"));
+    }
+
+    /**
+     * The registry the reporter's own metrics go to
+     */
+    static MetricRegistry registry(ReporterAttributes atts) {
+        return atts.statsRegistry != null ? atts.statsRegistry : atts.registry;
+    }
+
+    /**
+     * Counts a failed request
+     *
+     * @param cause the status code, or the simple name of the exception
+     */
+    public void failed(String cause) {
+        registry.counter(name("post", "failures", cause)).inc();
+    }
+
+    /**
+     * A clock which stands still while reports are being posted, used to time the other phases
+     */
+    public long tick() {
+        return System.nanoTime() - postNanos.get();
+    }
+
+    /**
+     * Records the time since a {@link #tick()}
+     */
+    public void record(Timer timer, long tick) {
+        timer.update(Math.max(0, tick() - tick), TimeUnit.NANOSECONDS);
+    }
+
+    void posted(long nanos) {
+        postNanos.addAndGet(nanos);
+    }
+
+    private String name(String... names) {
+        return MetricRegistry.name(prefix, names);
+    }
+}
@@ -0,0 +1,109 @@
+package com.librato.metrics.reporter;
+
+import com.librato.metrics.client.Tag;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A registry name that has been fully resolved into the {@link Signal} the reporter sends: the prefix
+ * has been added, the source extracted and the tags decoded. The signals for the expanded metrics and
+ * the tags merged with the reporter's tags are derived from it on first use and kept, so each one is
+ * only built once.
+ */
+public class ResolvedSignal {
+    private static final ExpandedMetric[] EXPANDED_METRICS = ExpandedMetric.values();
+    public final Signal signal;
+    private final Signal[] expanded = new Signal[EXPANDED_METRICS.length];
+    // the signals for configured percentiles, by the index of the percentile
+    private Signal[] percentileSignals;
+    private TagSet mergedTags;
+    // the JSON fragments written by the StreamingPayloadEncoder, indexed like the expanded signals
+    byte[][] encodedNames;
+    byte[] encodedSource;
+    byte[] encodedTags;
+    // the JSON names of configured percentiles, indexed like their signals
+    byte[][] encodedPercentileNames;
+    // the percentiles the reporter sends for this signal, or null until it is first needed
+    PercentileSet percentileSet;
+    // the slot of the registry name in the reporter's DeltaTracker, or -1 until it is first needed
+    int deltaSlot = -1;
+    // whether the registry name encodes a source or tags, that is whether the fluent helper registered it
+    Boolean encoded;
+
+    public ResolvedSignal(Signal signal) {
+        this.signal = signal;
+    }
+
+    public Signal get(ExpandedMetric expandedMetric) {
+        if (expandedMetric == null) {
+            return signal;
+        }
+        Signal result = expanded[expandedMetric.ordinal()];
+        if (result == null) {
+            result = new Signal(expandedMetric.buildMetricName(signal.name),
+                    signal.source,
+                    signal.tags,
+                    signal.overrideTags);
+            expanded[expandedMetric.ordinal()] = result;
+        }
+        return result;
+    }
+
+    public Signal getPercentile(Percentile percentile) {
+        if (percentileSignals == null || percentileSignals.length <= percentile.index) {
+            percentileSignals = grow(percentileSignals, percentile.index + 1);
+        }
+        Signal result = percentileSignals[percentile.index];
+        if (result == null) {
+            result = new Signal(percentile.buildMetricName(signal.name),
+                    signal.source,
+                    signal.tags,
+                    signal.overrideTags);
+            percentileSignals[percentile.index] = result;
+        }
+        return result;
+    }
+
+    private static Signal[] grow(Signal[] signals, int length) {
+        Signal[] grown = new Signal[length];
+        if (signals != null) {
+            System.arraycopy(signals, 0, grown, 0, signals.length);
+        }
+        return grown;
+    }
+
+    /**
+     * The tags to send with tagged measures for this signal. A signal without tags of its own is tagged
+     * with its source, and unless the signal overrides them the reporter's tags are added.
+     */
+    public TagSet getMergedTags(List<Tag> reporterTags) {
+        if (mergedTags != null) {
+            return mergedTags;
+        }
+        TagSet tags = TagSet.of(signal.tags);
+        if (signal.overrideTags) {
+            mergedTags = tags;
+        } else if (tags.isEmpty() && signal.source != null) {
+            List<Tag> merged = new ArrayList<Tag>();
+            merged.add(new Tag("source", signal.source));
+            for (Tag tag : reporterTags) {
+                if (!"source".equals(tag.name)) {
+                    merged.add(tag);
+                }
+            }
+            mergedTags = TagSet.of(merged);
+        } else {
+            mergedTags = tags.merge(TagSet.of(reporterTags));
+        }
+        return mergedTags;
+    }
+
+    static int slot(ExpandedMetric expandedMetric) {
+        return expandedMetric == null ? EXPANDED_METRICS.length : expandedMetric.ordinal();
+    }
+
+    static int slots() {
+        return EXPANDED_METRICS.length + 1;
+    }
+}
@@ -4,20 +4,35 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.librato.metrics.client.Tag;
 
-import java.util.Collections;
 import java.util.List;
 
 public class Signal {
     public String name;
     public String source;
-    public List<Tag> tags = Collections.emptyList();
+    public List<Tag> tags = TagSet.EMPTY;
     public boolean overrideTags;
 
+    /**
+     * Decodes a registry name, with its tags interned, so that the series the reporter reads back share
+     * one {@link TagSet} for the same tags
+     */
     public static Signal decode(String data) {
-        if (data == null || data.length() < 2 || data.charAt(0) != '{') {
+        if (data == null || data.length() < 2) {
             return new Signal(data);
         }
-        return Json.decode(data, Signal.class);
+        if (data.charAt(0) == CompactName.PREFIX) {
+            Signal signal = CompactName.decode(data);
+            return signal != null ? intern(signal) : new Signal(data);
+        }
+        if (data.charAt(0) != '{') {
+            return new Signal(data);
+        }
+        return intern(Json.decode(data, Signal.class));
+    }
+
+    private static Signal intern(Signal signal) {
+        signal.tags = TagSet.of(signal.tags);
+        return signal;
     }
 
     public Signal(String name) {
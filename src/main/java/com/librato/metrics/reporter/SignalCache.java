@@ -0,0 +1,62 @@
+package com.librato.metrics.reporter;
+
+/**
+ * A bounded cache of {@link ResolvedSignal}s keyed by registry name. Resolving a name runs the source
+ * regex and, for tagged metrics, decodes the JSON encoded name, which is the largest part of the work
+ * done per metric when reporting. The cache should be sized to at least the number of reported metrics,
+ * otherwise entries are evicted before they are used again. It is a {@link ClockCache}, so that threads
+ * collecting in parallel do not contend on it.
+ */
+public class SignalCache {
+    private final ClockCache<String, ResolvedSignal> cache;
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+
+    public SignalCache(int maxSize) {
+        this.cache = new ClockCache<String, ResolvedSignal>(maxSize);
+    }
+
+    /**
+     * Returns the cached entry for the name, or null if the name needs to be resolved
+     */
+    public ResolvedSignal get(String registryName) {
+        ResolvedSignal result = cache.getIfPresent(registryName);
+        if (result != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Caches the signal for the name, returning the entry another thread cached first if there is one
+     */
+    public ResolvedSignal put(String registryName, final Signal signal) {
+        return cache.get(registryName, new Supplier<ResolvedSignal>() {
+            @Override
+            public ResolvedSignal get() {
+                return new ResolvedSignal(signal);
+            }
+        });
+    }
+
+    /**
+     * Drops the entry for a name, called when the metric is removed from the registry
+     */
+    public void invalidate(String registryName) {
+        cache.remove(registryName);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,69 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * A reservoir which records into a {@link DDSketch} and starts over with every snapshot, so that, like the
+ * {@link IntervalReservoir}, the percentiles of a snapshot describe one reporting period. It takes from a few
+ * hundred bytes to a kilobyte or two, depending on the spread of the values, instead of the kilobytes of a
+ * sampling reservoir, which matters when there is a timer per endpoint or per customer. Because sketches
+ * merge, the reporter can also roll tagged series up into an untagged total, see
+ * {@link ReporterBuilder#setEnableSketchRollups(boolean)}.
+ * <p>
+ * Recording takes a lock, which is held very briefly. Only one reader should take snapshots, since each
+ * one resets the interval.
+ */
+public class SketchReservoir implements Reservoir {
+    /**
+     * Percentiles within 2% of the true value
+     */
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.02;
+    /**
+     * Enough for values spanning 35 orders of magnitude at 2%, so that the lowest bins are never folded in
+     * practice. Only the bins between the lowest and highest values are allocated.
+     */
+    public static final int DEFAULT_MAX_BINS = 2048;
+    private DDSketch sketch;
+
+    public static Supplier<Reservoir> supplier() {
+        return supplier(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    public static Supplier<Reservoir> supplier(final double relativeAccuracy) {
+        return new Supplier<Reservoir>() {
+            @Override
+            public Reservoir get() {
+                return new SketchReservoir(relativeAccuracy, DEFAULT_MAX_BINS);
+            }
+        };
+    }
+
+    public SketchReservoir() {
+        this(DEFAULT_RELATIVE_ACCURACY, DEFAULT_MAX_BINS);
+    }
+
+    public SketchReservoir(double relativeAccuracy, int maxBins) {
+        this.sketch = new DDSketch(relativeAccuracy, maxBins);
+    }
+
+    @Override
+    public synchronized int size() {
+        return (int) Math.min(sketch.getCount(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized void update(long value) {
+        sketch.add(value);
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        DDSketch interval;
+        synchronized (this) {
+            interval = sketch;
+            sketch = interval.emptyCopy();
+        }
+        return new SketchSnapshot(interval);
+    }
+}
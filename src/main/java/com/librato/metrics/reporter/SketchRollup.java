@@ -0,0 +1,50 @@
+package com.librato.metrics.reporter;
+
+/**
+ * The sketches of the tagged series of one metric merged during a report, to be sent as an untagged
+ * total. If the metric also has an untagged series of its own, the total would be sent under the same
+ * name and tags, so it is not sent at all. Series are collected concurrently when collecting in
+ * parallel, so merging is synchronized.
+ */
+class SketchRollup {
+    final ResolvedSignal signal;
+    final boolean convert;
+    private DDSketch sketch;
+    // whether an untagged series of this name was reported since the last take
+    private boolean shadowed;
+    // whether the total has been skipped because of such a series before
+    boolean warned;
+
+    SketchRollup(String name, boolean convert) {
+        this.signal = new ResolvedSignal(new Signal(name));
+        this.convert = convert;
+    }
+
+    synchronized void merge(DDSketch other) {
+        if (sketch == null) {
+            sketch = other.emptyCopy();
+        }
+        sketch.merge(other);
+    }
+
+    /**
+     * Notes that an untagged series of this name was reported, which the total must not be sent next to
+     */
+    synchronized void shadow() {
+        shadowed = true;
+    }
+
+    synchronized boolean isShadowed() {
+        return shadowed;
+    }
+
+    /**
+     * Returns the merged sketch and starts over, or null if nothing was merged since the last call
+     */
+    synchronized DDSketch take() {
+        DDSketch merged = sketch;
+        sketch = null;
+        shadowed = false;
+        return merged;
+    }
+}
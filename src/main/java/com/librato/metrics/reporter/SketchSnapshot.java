@@ -0,0 +1,118 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Snapshot;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+
+/**
+ * A snapshot of a {@link DDSketch}. Percentiles are within the relative accuracy of the sketch, and the
+ * size, mean, minimum and maximum are exact. The sketch is kept, so that the reporter can merge the
+ * snapshots of several series.
+ */
+public class SketchSnapshot extends Snapshot implements MultiQuantileSnapshot {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private final DDSketch sketch;
+
+    public SketchSnapshot(DDSketch sketch) {
+        this.sketch = sketch;
+    }
+
+    public DDSketch getSketch() {
+        return sketch;
+    }
+
+    @Override
+    public double getValue(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+        return sketch.getQuantile(quantile);
+    }
+
+    @Override
+    public double[] getQuantiles(double[] quantiles) {
+        for (double quantile : quantiles) {
+            if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+                throw new IllegalArgumentException(quantile + " is not in [0..1]");
+            }
+        }
+        return sketch.getQuantiles(quantiles);
+    }
+
+    /**
+     * Expands the bins into one value per recorded value, which may be a large array
+     */
+    @Override
+    public long[] getValues() {
+        final long[] expanded = new long[size()];
+        sketch.forEachBin(new DDSketch.BinVisitor() {
+            int next;
+
+            @Override
+            public void visit(double value, long count) {
+                for (long i = 0; i < count && next < expanded.length; i++) {
+                    expanded[next++] = Math.round(value);
+                }
+            }
+        });
+        return expanded;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(sketch.getCount(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax() {
+        return sketch.getMax();
+    }
+
+    @Override
+    public double getMean() {
+        return sketch.getCount() == 0 ? 0 : sketch.getSum() / sketch.getCount();
+    }
+
+    @Override
+    public long getMin() {
+        return sketch.getMin();
+    }
+
+    @Override
+    public double getStdDev() {
+        final long count = sketch.getCount();
+        if (count <= 1) {
+            return 0;
+        }
+        final double mean = getMean();
+        final double[] variance = new double[1];
+        sketch.forEachBin(new DDSketch.BinVisitor() {
+            @Override
+            public void visit(double value, long n) {
+                double diff = value - mean;
+                variance[0] += diff * diff * n;
+            }
+        });
+        return Math.sqrt(variance[0] / (count - 1));
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+        final PrintWriter out = new PrintWriter(new OutputStreamWriter(output, UTF_8));
+        try {
+            sketch.forEachBin(new DDSketch.BinVisitor() {
+                @Override
+                public void visit(double value, long count) {
+                    for (long i = 0; i < count; i++) {
+                        out.printf("%d%n", Math.round(value));
+                    }
+                }
+            });
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.librato.metrics.reporter;
+
+/**
+ * A payload read back from the spool.
+ */
+public class SpoolRecord {
+    public final long epoch;
+    public final boolean md;
+    public final boolean gzip;
+    public final byte[] payload;
+    // where the record was read from, so that it can be consumed even if other records were since
+    final SpoolSegment segment;
+    final int position;
+
+    public SpoolRecord(long epoch, boolean md, boolean gzip, byte[] payload) {
+        this(epoch, md, gzip, payload, null, -1);
+    }
+
+    SpoolRecord(long epoch, boolean md, boolean gzip, byte[] payload, SpoolSegment segment, int position) {
+        this.epoch = epoch;
+        this.md = md;
+        this.gzip = gzip;
+        this.payload = payload;
+        this.segment = segment;
+        this.position = position;
+    }
+}
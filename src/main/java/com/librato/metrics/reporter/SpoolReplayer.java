@@ -0,0 +1,99 @@
+package com.librato.metrics.reporter;
+
+import com.librato.metrics.client.HttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the {@link PayloadSpool} in the background, posting at most a fixed number of payloads per
+ * second. A round stops at the first payload that cannot be posted, so while the API is down this only
+ * costs one request per second.
+ */
+public class SpoolReplayer {
+    private static final Logger log = LoggerFactory.getLogger(SpoolReplayer.class);
+    private final PayloadSpool spool;
+    private final PayloadPoster poster;
+    private final int payloadsPerSecond;
+    private final ScheduledExecutorService executor;
+
+    public SpoolReplayer(PayloadSpool spool, PayloadPoster poster, int payloadsPerSecond) {
+        this.spool = spool;
+        this.poster = poster;
+        this.payloadsPerSecond = payloadsPerSecond;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "librato-spool-replayer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public PayloadSpool getSpool() {
+        return spool;
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replay();
+                } catch (Exception e) {
+                    log.error("Failure to replay spooled payloads", e);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        spool.close();
+    }
+
+    /**
+     * Posts up to the configured number of payloads, returning how many were sent
+     */
+    int replay() {
+        int sent = 0;
+        for (int i = 0; i < payloadsPerSecond; i++) {
+            SpoolRecord record = spool.peek();
+            if (record == null) {
+                break;
+            }
+            int code;
+            try {
+                HttpResponse response = poster.post(record.md, record.gzip, record.payload);
+                code = response.getResponseCode();
+            } catch (Exception e) {
+                log.debug("Librato is still unreachable, will retry spooled payloads", e);
+                break;
+            }
+            if (code / 100 == 2) {
+                spool.consume(record, true);
+                sent++;
+            } else if (isRetriable(code)) {
+                break;
+            } else {
+                log.warn("Librato rejected a spooled payload with status {}, discarding it", code);
+                spool.consume(record, false);
+            }
+        }
+        return sent;
+    }
+
+    static boolean isRetriable(int code) {
+        return code >= 500 || code == 429;
+    }
+}
@@ -0,0 +1,152 @@
+package com.librato.metrics.reporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One memory mapped file of the spool. Records are appended as
+ * <pre>[int length][long epoch][byte flags][payload]</pre>
+ * and the length is written last, so a record that was only partly written before a crash reads as
+ * the end of the segment. Records that have been replayed are flagged as consumed in place, which
+ * means they are not replayed again after a restart.
+ * <p>
+ * There is no portable way to unmap a file before Java 9, so the file of a deleted segment stays mapped
+ * until its buffer is garbage collected. On Linux and macOS the file is removed at once, on Windows only
+ * when the JVM exits.
+ */
+public class SpoolSegment {
+    static final int HEADER_BYTES = 4 + 8 + 1;
+    private static final byte FLAG_MD = 1;
+    private static final byte FLAG_CONSUMED = 2;
+    private static final byte FLAG_GZIP = 4;
+    final File file;
+    private final MappedByteBuffer buffer;
+    private int writePosition;
+    private int readPosition;
+    private int pending;
+
+    static SpoolSegment create(File file, int capacity) throws IOException {
+        return new SpoolSegment(file, capacity);
+    }
+
+    static SpoolSegment open(File file) throws IOException {
+        SpoolSegment segment = new SpoolSegment(file, (int) file.length());
+        segment.scan();
+        return segment;
+    }
+
+    private SpoolSegment(File file, int capacity) throws IOException {
+        this.file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(capacity);
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } finally {
+            raf.close();
+        }
+    }
+
+    static int recordBytes(byte[] payload) {
+        return HEADER_BYTES + payload.length;
+    }
+
+    boolean append(long epoch, boolean md, boolean gzip, byte[] payload) {
+        int position = writePosition;
+        if (position + recordBytes(payload) > buffer.capacity()) {
+            return false;
+        }
+        buffer.putLong(position + 4, epoch);
+        buffer.put(position + 12, (byte) ((md ? FLAG_MD : 0) | (gzip ? FLAG_GZIP : 0)));
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + HEADER_BYTES);
+        view.put(payload);
+        buffer.putInt(position, payload.length);
+        writePosition = position + recordBytes(payload);
+        pending++;
+        return true;
+    }
+
+    /**
+     * Returns the next record which has not been consumed, or null if there is none
+     */
+    SpoolRecord peek() {
+        if (readPosition >= writePosition) {
+            return null;
+        }
+        int length = buffer.getInt(readPosition);
+        long epoch = buffer.getLong(readPosition + 4);
+        byte flags = buffer.get(readPosition + 12);
+        byte[] payload = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(readPosition + HEADER_BYTES);
+        view.get(payload);
+        return new SpoolRecord(epoch, (flags & FLAG_MD) != 0, (flags & FLAG_GZIP) != 0, payload, this, readPosition);
+    }
+
+    /**
+     * Marks the record returned by {@link #peek()} as consumed
+     */
+    void consume() {
+        consume(readPosition);
+    }
+
+    /**
+     * Marks the record at the position as consumed, if it is the next one, and returns whether it was
+     */
+    boolean consume(int position) {
+        if (position != readPosition || readPosition >= writePosition) {
+            return false;
+        }
+        int length = buffer.getInt(readPosition);
+        buffer.put(readPosition + 12, (byte) (buffer.get(readPosition + 12) | FLAG_CONSUMED));
+        readPosition += HEADER_BYTES + length;
+        pending--;
+        return true;
+    }
+
+    boolean isExhausted() {
+        return readPosition >= writePosition;
+    }
+
+    int getPending() {
+        return pending;
+    }
+
+    int getCapacity() {
+        return buffer.capacity();
+    }
+
+    void flush() {
+        buffer.force();
+    }
+
+    void delete() {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private void scan() {
+        int position = 0;
+        boolean sawPending = false;
+        while (position + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_BYTES + length > buffer.capacity()) {
+                break;
+            }
+            boolean consumed = (buffer.get(position + 12) & FLAG_CONSUMED) != 0;
+            if (!consumed) {
+                pending++;
+                sawPending = true;
+            } else if (!sawPending) {
+                readPosition = position + HEADER_BYTES + length;
+            }
+            position += HEADER_BYTES + length;
+        }
+        writePosition = position;
+    }
+}
@@ -0,0 +1,352 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.librato.metrics.client.HttpResponse;
+import com.librato.metrics.client.Json;
+import com.librato.metrics.client.Sanitizer;
+import com.librato.metrics.client.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a report straight into reusable JSON buffers instead of building a {@link
+ * com.librato.metrics.client.Measures} and having the client serialize it. The JSON fragments for a
+ * signal's name, source and tags are encoded once and kept in its {@link ResolvedSignal}, so writing a
+ * value only copies bytes and formats a number. A payload is posted, optionally gzipped, whenever it
+ * holds a batch worth of measures.
+ */
+public class StreamingPayloadEncoder implements MeasureSink {
+    private static final Logger log = LoggerFactory.getLogger(StreamingPayloadEncoder.class);
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int MAX_TAG_NAME_LENGTH = 64;
+    private static final int MAX_TAG_VALUE_LENGTH = 255;
+    private static final byte[] NO_BYTES = new byte[0];
+    private static final byte[] NAME = ascii("{\"name\":");
+    private static final byte[] VALUE = ascii(",\"value\":");
+    private static final byte[] SUM = ascii(",\"sum\":");
+    private static final byte[] COUNT = ascii(",\"count\":");
+    private static final byte[] MIN = ascii(",\"min\":");
+    private static final byte[] MAX = ascii(",\"max\":");
+    private static final byte[] SOURCE = ascii(",\"source\":");
+    private static final byte[] TAGS = ascii(",\"tags\":");
+    private static final byte[] PERIOD = ascii(",\"period\":");
+    private static final byte[] SD_HEADER = ascii("{\"measure_time\":");
+    private static final byte[] SD_GAUGES = ascii(",\"gauges\":[");
+    private static final byte[] MD_HEADER = ascii("{\"time\":");
+    private static final byte[] MD_MEASUREMENTS = ascii(",\"measurements\":[");
+    private final PayloadPoster poster;
+    private final PayloadSpool spool;
+    private final boolean enableLegacy;
+    private final boolean enableTagging;
+    private final TagSet tags;
+    private final byte[] source;
+    private final int batchSize;
+    private final boolean gzip;
+    private final int compressionLevel;
+    private final Counter uncompressedBytes;
+    private final Counter compressedBytes;
+    private final Payload sd = new Payload(false);
+    private final Payload md = new Payload(true);
+    private long epoch;
+    private Integer period;
+    private int measureCount;
+
+    /**
+     * @param spool     where payloads that failed to post are kept, or null
+     * @param source    the source of legacy payloads, or null
+     * @param batchSize the maximum number of measures in one payload
+     * @param gzip      whether to gzip payloads, at the given {@link java.util.zip.Deflater} level
+     */
+    public StreamingPayloadEncoder(PayloadPoster poster,
+                                   PayloadSpool spool,
+                                   boolean enableLegacy,
+                                   boolean enableTagging,
+                                   List<Tag> tags,
+                                   String source,
+                                   int batchSize,
+                                   boolean gzip,
+                                   int compressionLevel,
+                                   MetricRegistry statsRegistry,
+                                   String statsPrefix) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.poster = poster;
+        this.spool = spool;
+        this.enableLegacy = enableLegacy;
+        this.enableTagging = enableTagging;
+        this.tags = TagSet.of(tags);
+        this.source = source != null ? Json.serialize(Sanitizer.SOURCE_SANITIZER.apply(source)) : null;
+        this.batchSize = batchSize;
+        this.gzip = gzip;
+        this.compressionLevel = GzipPoster.checkLevel(compressionLevel);
+        this.uncompressedBytes = GzipPoster.uncompressedBytes(statsRegistry, statsPrefix);
+        this.compressedBytes = GzipPoster.compressedBytes(statsRegistry, statsPrefix);
+    }
+
+    /**
+     * Starts a report, must be followed by {@link #finish()} once all values have been added
+     */
+    public void begin(long epoch, Integer period) {
+        this.epoch = epoch;
+        this.period = period;
+        this.measureCount = 0;
+    }
+
+    /**
+     * The number of measures written since {@link #begin(long, Integer)}
+     */
+    public int getMeasureCount() {
+        return measureCount;
+    }
+
+    /**
+     * Posts whatever remains of the report
+     */
+    public void finish() {
+        try {
+            sd.finish();
+            md.finish();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not encode payload", e);
+        }
+    }
+
+    public void add(ResolvedSignal signal, ExpandedMetric expandedMetric, double value) {
+        addValue(signal, name(signal, expandedMetric), value);
+    }
+
+    public void addPercentile(ResolvedSignal signal, Percentile percentile, double value) {
+        addValue(signal, percentileName(signal, percentile), value);
+    }
+
+    private void addValue(ResolvedSignal signal, byte[] name, double value) {
+        try {
+            if (enableLegacy) {
+                JsonOutput json = sd.next();
+                json.write(NAME).write(name).write(source(signal));
+                json.write(VALUE).write(value).write('}');
+                sd.added();
+            }
+            if (enableTagging) {
+                writeTagged(signal, name, value, 1, value, value);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not encode payload", e);
+        }
+    }
+
+    public void add(ResolvedSignal signal, double sum, long count, double min, double max) {
+        try {
+            byte[] name = name(signal, null);
+            if (enableLegacy) {
+                JsonOutput json = sd.next();
+                json.write(NAME).write(name).write(source(signal));
+                writeStatistics(json, sum, count, min, max);
+                sd.added();
+            }
+            if (enableTagging) {
+                writeTagged(signal, name, sum, count, min, max);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not encode payload", e);
+        }
+    }
+
+    private void writeTagged(ResolvedSignal signal, byte[] name, double sum, long count, double min, double max) throws IOException {
+        JsonOutput json = md.next();
+        json.write(NAME).write(name).write(tags(signal));
+        writeStatistics(json, sum, count, min, max);
+        md.added();
+    }
+
+    private void writeStatistics(JsonOutput json, double sum, long count, double min, double max) throws IOException {
+        json.write(SUM).write(sum);
+        json.write(COUNT).write(count);
+        json.write(MIN).write(min);
+        json.write(MAX).write(max).write('}');
+    }
+
+    private byte[] name(ResolvedSignal signal, ExpandedMetric expandedMetric) {
+        if (signal.encodedNames == null) {
+            signal.encodedNames = new byte[ResolvedSignal.slots()][];
+        }
+        int slot = ResolvedSignal.slot(expandedMetric);
+        byte[] name = signal.encodedNames[slot];
+        if (name == null) {
+            name = Json.serialize(Sanitizer.METRIC_NAME_SANITIZER.apply(signal.get(expandedMetric).name));
+            signal.encodedNames[slot] = name;
+        }
+        return name;
+    }
+
+    private byte[] percentileName(ResolvedSignal signal, Percentile percentile) {
+        byte[][] names = signal.encodedPercentileNames;
+        if (names == null || names.length <= percentile.index) {
+            byte[][] grown = new byte[percentile.index + 1][];
+            if (names != null) {
+                System.arraycopy(names, 0, grown, 0, names.length);
+            }
+            names = signal.encodedPercentileNames = grown;
+        }
+        byte[] name = names[percentile.index];
+        if (name == null) {
+            name = Json.serialize(Sanitizer.METRIC_NAME_SANITIZER.apply(signal.getPercentile(percentile).name));
+            names[percentile.index] = name;
+        }
+        return name;
+    }
+
+    private byte[] source(ResolvedSignal signal) {
+        if (signal.encodedSource == null) {
+            String source = signal.signal.source;
+            signal.encodedSource = source == null
+                    ? NO_BYTES
+                    : concat(SOURCE, Json.serialize(Sanitizer.SOURCE_SANITIZER.apply(source)));
+        }
+        return signal.encodedSource;
+    }
+
+    private byte[] tags(ResolvedSignal signal) {
+        if (signal.encodedTags == null) {
+            // shared by every series with the same tags
+            TagSet merged = signal.getMergedTags(tags);
+            byte[] encoded = merged.encoded;
+            if (encoded == null) {
+                encoded = merged.encoded = encode(merged);
+            }
+            signal.encodedTags = encoded;
+        }
+        return signal.encodedTags;
+    }
+
+    private static byte[] encode(TagSet merged) {
+        if (merged.isEmpty()) {
+            return NO_BYTES;
+        }
+        // sanitized like the client does, where the last of several tags with the same name wins
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (Tag tag : merged) {
+            map.put(trim(Sanitizer.TAG_NAME_SANITIZER.apply(tag.name), MAX_TAG_NAME_LENGTH),
+                    trim(Sanitizer.TAG_VALUE_SANITIZER.apply(tag.value), MAX_TAG_VALUE_LENGTH));
+        }
+        return concat(TAGS, Json.serialize(map));
+    }
+
+    private static String trim(String string, int length) {
+        return string != null && string.length() > length ? string.substring(0, length) : string;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static byte[] ascii(String string) {
+        return string.getBytes(ASCII);
+    }
+
+    private void post(boolean md, byte[] payload) {
+        try {
+            HttpResponse response = poster.post(md, gzip, payload);
+            int code = response.getResponseCode();
+            if (code / 100 != 2) {
+                log.error("Failure to post to Librato: status {}", code);
+                if (SpoolReplayer.isRetriable(code)) {
+                    spool(md, payload);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Failure to post to Librato", e);
+            spool(md, payload);
+        }
+    }
+
+    private void spool(boolean md, byte[] payload) {
+        if (spool != null) {
+            spool.append(epoch, md, gzip, payload);
+        }
+    }
+
+    /**
+     * One payload being written, either legacy or tagged. The buffer is kept between payloads.
+     */
+    private class Payload {
+        private final boolean md;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+        private final JsonOutput json = new JsonOutput(8 * 1024);
+        private GZIPOutputStream gzipStream;
+        private int count;
+
+        Payload(boolean md) {
+            this.md = md;
+        }
+
+        /**
+         * Returns the output to write the next measure to, starting a payload if needed
+         */
+        JsonOutput next() throws IOException {
+            if (count == 0) {
+                open();
+            } else {
+                json.write(',');
+            }
+            return json;
+        }
+
+        void added() throws IOException {
+            measureCount++;
+            if (++count == batchSize) {
+                close();
+            }
+        }
+
+        void finish() throws IOException {
+            if (count > 0) {
+                close();
+            }
+        }
+
+        private void open() throws IOException {
+            buffer.reset();
+            if (gzip) {
+                gzipStream = GzipPoster.open(buffer, compressionLevel);
+                json.reset(gzipStream);
+            } else {
+                json.reset(buffer);
+            }
+            json.write(md ? MD_HEADER : SD_HEADER).write(epoch);
+            if (!md && source != null) {
+                json.write(SOURCE).write(source);
+            }
+            if (period != null) {
+                json.write(PERIOD).write((long) period);
+            }
+            json.write(md ? MD_MEASUREMENTS : SD_GAUGES);
+        }
+
+        private void close() throws IOException {
+            json.write(']').write('}');
+            json.flush();
+            if (gzipStream != null) {
+                gzipStream.close();
+                gzipStream = null;
+                uncompressedBytes.inc(json.getBytesWritten());
+                compressedBytes.inc(buffer.size());
+            }
+            count = 0;
+            post(md, buffer.toByteArray());
+        }
+    }
+}
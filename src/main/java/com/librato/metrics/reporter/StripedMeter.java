@@ -0,0 +1,107 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.EWMA;
+import com.codahale.metrics.Meter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A meter for hot paths shared by many threads. Marking only adds to a {@link StripedCounter}, without
+ * reading the clock or updating the moving averages, which a {@link Meter} does on every mark. The count
+ * since the last read is folded into the moving averages when a rate is read, spread evenly over the five
+ * second ticks that elapsed since, so for a steady rate the count and rates are those of a {@link Meter}.
+ * The stripes take a few kilobytes on hosts with many cores, so use it for shared meters rather than per
+ * series.
+ */
+public class StripedMeter extends Meter {
+    private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private final StripedCounter count = new StripedCounter();
+    private final EWMA m1Rate = EWMA.oneMinuteEWMA();
+    private final EWMA m5Rate = EWMA.fiveMinuteEWMA();
+    private final EWMA m15Rate = EWMA.fifteenMinuteEWMA();
+    private final Clock clock;
+    private final long startTime;
+    private long lastTick;
+    // the part of the count already added to the moving averages
+    private long folded;
+
+    public StripedMeter() {
+        this(Clock.defaultClock());
+    }
+
+    public StripedMeter(Clock clock) {
+        super(clock);
+        this.clock = clock;
+        this.startTime = clock.getTick();
+        this.lastTick = startTime;
+    }
+
+    @Override
+    public void mark() {
+        count.add(1);
+    }
+
+    @Override
+    public void mark(long n) {
+        count.add(n);
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getFifteenMinuteRate() {
+        tickIfNecessary();
+        return m15Rate.getRate(TimeUnit.SECONDS);
+    }
+
+    @Override
+    public double getFiveMinuteRate() {
+        tickIfNecessary();
+        return m5Rate.getRate(TimeUnit.SECONDS);
+    }
+
+    @Override
+    public double getOneMinuteRate() {
+        tickIfNecessary();
+        return m1Rate.getRate(TimeUnit.SECONDS);
+    }
+
+    @Override
+    public double getMeanRate() {
+        long count = getCount();
+        if (count == 0) {
+            return 0.0;
+        }
+        double elapsed = clock.getTick() - startTime;
+        return count / elapsed * TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private synchronized void tickIfNecessary() {
+        long now = clock.getTick();
+        long age = now - lastTick;
+        if (age <= TICK_INTERVAL) {
+            return;
+        }
+        long ticks = age / TICK_INTERVAL;
+        lastTick += ticks * TICK_INTERVAL;
+        long total = count.get();
+        long delta = total - folded;
+        folded = total;
+        // which interval each mark fell in is not known, so spread them evenly over the elapsed ticks
+        long perTick = delta / ticks;
+        long remainder = delta % ticks;
+        for (long i = 0; i < ticks; i++) {
+            long marks = perTick + (i < remainder ? 1 : 0);
+            m1Rate.update(marks);
+            m5Rate.update(marks);
+            m15Rate.update(marks);
+            m1Rate.tick();
+            m5Rate.tick();
+            m15Rate.tick();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timer for hot paths shared by many threads, which counts into a {@link StripedMeter}. Only the meter
+ * is striped: every update still goes through the reservoir, so the timer is only free of contention
+ * with a reservoir which records without locks, like the {@link IntervalReservoir}. The default
+ * exponentially decaying one takes a lock for every update. The count, rates and snapshots are those of
+ * a {@link Timer} with the same reservoir.
+ * <p>
+ * {@link Timer} has no constructor which leaves out its own meter and histogram, so each striped timer
+ * also carries an unused {@link com.codahale.metrics.Meter} and a histogram over the same reservoir,
+ * which take a few hundred bytes.
+ */
+public class StripedTimer extends Timer {
+    private final StripedMeter meter;
+    private final Histogram histogram;
+    private final Clock clock;
+
+    public StripedTimer(Reservoir reservoir) {
+        this(reservoir, Clock.defaultClock());
+    }
+
+    public StripedTimer(Reservoir reservoir, Clock clock) {
+        super(reservoir, clock);
+        this.meter = new StripedMeter(clock);
+        this.histogram = new Histogram(reservoir);
+        this.clock = clock;
+    }
+
+    @Override
+    public void update(long duration, TimeUnit unit) {
+        long nanos = unit.toNanos(duration);
+        if (nanos >= 0) {
+            histogram.update(nanos);
+            meter.mark();
+        }
+    }
+
+    @Override
+    public <T> T time(Callable<T> event) throws Exception {
+        long startTime = clock.getTick();
+        try {
+            return event.call();
+        } finally {
+            update(clock.getTick() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void time(Runnable event) {
+        long startTime = clock.getTick();
+        try {
+            event.run();
+        } finally {
+            update(clock.getTick() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    @Override
+    public double getFifteenMinuteRate() {
+        return meter.getFifteenMinuteRate();
+    }
+
+    @Override
+    public double getFiveMinuteRate() {
+        return meter.getFiveMinuteRate();
+    }
+
+    @Override
+    public double getMeanRate() {
+        return meter.getMeanRate();
+    }
+
+    @Override
+    public double getOneMinuteRate() {
+        return meter.getOneMinuteRate();
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        return histogram.getSnapshot();
+    }
+}
@@ -0,0 +1,121 @@
+package com.librato.metrics.reporter;
+
+import com.librato.metrics.client.Tag;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of tags with a precomputed hash code. Tag sets are interned, so the series which
+ * carry the same tags, which in tagged registries is most of them, share one instance, and with it the
+ * tags merged with the reporter's tags and their encoded form. Tag sets are equal to any list of the
+ * same tags, in the same order.
+ */
+public final class TagSet extends AbstractList<Tag> implements RandomAccess {
+    public static final TagSet EMPTY = new TagSet(new Tag[0]);
+    // a bounded pool, tag sets which fall out of it are merely no longer shared
+    private static final ClockCache<TagSet, TagSet> pool = new ClockCache<TagSet, TagSet>(50000);
+    private final Tag[] tags;
+    private final int hashCode;
+    private volatile Merged merged;
+    // the tags as written by the StreamingPayloadEncoder
+    volatile byte[] encoded;
+
+    /**
+     * Returns the interned tag set of the tags
+     */
+    public static TagSet of(Collection<Tag> tags) {
+        if (tags instanceof TagSet) {
+            return (TagSet) tags;
+        }
+        if (tags.isEmpty()) {
+            return EMPTY;
+        }
+        return intern(new TagSet(tags.toArray(new Tag[tags.size()])));
+    }
+
+    public static TagSet of(Tag... tags) {
+        return of(Arrays.asList(tags));
+    }
+
+    private static TagSet intern(final TagSet tags) {
+        return pool.get(tags, new Supplier<TagSet>() {
+            @Override
+            public TagSet get() {
+                return tags;
+            }
+        });
+    }
+
+    private TagSet(Tag[] tags) {
+        this.tags = tags;
+        this.hashCode = Arrays.hashCode(tags);
+    }
+
+    /**
+     * Returns these tags followed by the reporter's tags. The result is kept for the last reporter tags it
+     * was asked for, so every series with these tags gets the same instance.
+     */
+    public TagSet merge(TagSet reporterTags) {
+        Merged result = merged;
+        if (result == null || result.reporterTags != reporterTags) {
+            result = new Merged(reporterTags, concat(reporterTags));
+            merged = result;
+        }
+        return result.tags;
+    }
+
+    TagSet concat(List<Tag> other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (tags.length == 0) {
+            return of(other);
+        }
+        Tag[] concatenated = Arrays.copyOf(tags, tags.length + other.size());
+        for (int i = 0; i < other.size(); i++) {
+            concatenated[tags.length + i] = other.get(i);
+        }
+        return intern(new TagSet(concatenated));
+    }
+
+    @Override
+    public Tag get(int index) {
+        return tags[index];
+    }
+
+    @Override
+    public int size() {
+        return tags.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof TagSet) {
+            TagSet other = (TagSet) o;
+            return hashCode == other.hashCode && Arrays.equals(tags, other.tags);
+        }
+        return super.equals(o);
+    }
+
+    private static class Merged {
+        final TagSet reporterTags;
+        final TagSet tags;
+
+        Merged(TagSet reporterTags, TagSet tags) {
+            this.reporterTags = reporterTags;
+            this.tags = tags;
+        }
+    }
+}
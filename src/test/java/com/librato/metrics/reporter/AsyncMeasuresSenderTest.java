@@ -0,0 +1,143 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.MetricRegistry;
+import com.librato.metrics.client.GaugeMeasure;
+import com.librato.metrics.client.IMeasure;
+import com.librato.metrics.client.Measures;
+import com.librato.metrics.client.Tag;
+import com.librato.metrics.client.TaggedMeasure;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AsyncMeasuresSenderTest {
+    MetricRegistry registry = new MetricRegistry();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Measures> sent = new CopyOnWriteArrayList<Measures>();
+    IMeasuresSender delegate = new IMeasuresSender() {
+        @Override
+        public void send(Measures measures) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sent.add(measures);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+    AsyncMeasuresSender sender;
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        if (sender != null) {
+            sender.shutdown();
+        }
+    }
+
+    @Test
+    public void testDropsOldestWhenFull() throws Exception {
+        sender = new AsyncMeasuresSender(delegate, 1, QueueFullPolicy.DROP_OLDEST, registry, "librato");
+        sender.send(measures(1, "in-flight"));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        sender.send(measures(2, "dropped"));
+        sender.send(measures(3, "kept"));
+
+        release.countDown();
+        sender.shutdown();
+        assertThat(sent).hasSize(2);
+        assertThat(sent.get(1).getEpoch()).isEqualTo(3);
+        assertThat(registry.counter("librato.send.dropped").getCount()).isEqualTo(1);
+        assertThat(registry.timer("librato.send.latency").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testCoalescesWhenFull() throws Exception {
+        sender = new AsyncMeasuresSender(delegate, 1, QueueFullPolicy.COALESCE, registry, "librato");
+        sender.send(measures(1, "in-flight"));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        sender.send(measures(2, "foo", "bar"));
+        sender.send(measures(3, "bar", "baz"));
+        assertThat(sender.getQueueDepth()).isEqualTo(1);
+
+        release.countDown();
+        sender.shutdown();
+        assertThat(sent).hasSize(2);
+        Measures coalesced = sent.get(1);
+        assertThat(coalesced.getEpoch()).isEqualTo(3);
+        assertThat(coalesced.getMeasures()).containsOnly(
+                (IMeasure) new GaugeMeasure("foo", 2).setTime(2),
+                new GaugeMeasure("bar", 2).setTime(2),
+                new GaugeMeasure("bar", 3),
+                new GaugeMeasure("baz", 3));
+        assertThat(registry.counter("librato.send.coalesced").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDropsOldestPastTheCoalescingCap() throws Exception {
+        long perMeasure = MeasuresChunker.estimateBytes(new GaugeMeasure("foo", 0));
+        sender = new AsyncMeasuresSender(delegate, 1, QueueFullPolicy.COALESCE, perMeasure * 3, registry, "librato");
+        sender.send(measures(1, "in-flight"));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        sender.send(measures(2, "foo"));
+        sender.send(measures(3, "foo"));
+        sender.send(measures(4, "foo"));
+        sender.send(measures(5, "foo"));
+
+        release.countDown();
+        sender.shutdown();
+        assertThat(sent).hasSize(2);
+        assertThat(sent.get(1).getEpoch()).isEqualTo(5);
+        // reports 2 to 4 were coalesced up to the cap, so that batch was dropped to make room for 5
+        assertThat(sent.get(1).getMeasures()).containsOnly((IMeasure) new GaugeMeasure("foo", 5));
+        assertThat(registry.counter("librato.send.coalesced").getCount()).isEqualTo(2);
+        assertThat(registry.counter("librato.send.dropped").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testKeepsTheTimeOfCoalescedTaggedMeasures() throws Exception {
+        Measures older = new Measures(null, Collections.<Tag>emptyList(), 2L, 60);
+        older.add(new TaggedMeasure("foo", 5, 2, 1, 4, new Tag("a", "b")));
+        Measures newer = measures(3, "bar");
+        Measures coalesced = MeasuresCoalescer.coalesce(MeasuresCoalescer.coalesce(older, newer), measures(4));
+
+        Map<String, Object> foo = coalesced.getMeasures().get(0).toMap();
+        assertThat(foo.get("time")).isEqualTo(2L);
+        assertThat(foo.get("sum")).isEqualTo(5.0);
+        assertThat(foo.get("count")).isEqualTo(2L);
+        assertThat(foo.get("tags")).isEqualTo(Collections.singletonMap("a", "b"));
+        assertThat(coalesced.getMeasures().get(1).toMap().get("measure_time")).isEqualTo(3L);
+        assertThat(coalesced.getEpoch()).isEqualTo(4);
+    }
+
+    @Test
+    public void testRegistersQueueDepthUntilShutdown() throws Exception {
+        sender = new AsyncMeasuresSender(delegate, 1, QueueFullPolicy.BLOCK, registry, "librato");
+        assertThat(registry.getGauges()).containsKey("librato.send.queueDepth");
+        release.countDown();
+        sender.shutdown();
+        assertThat(registry.getGauges()).doesNotContainKey("librato.send.queueDepth");
+    }
+
+    private Measures measures(long epoch, String... names) {
+        Measures measures = new Measures(null, Collections.<Tag>emptyList(), epoch, 60);
+        for (String name : names) {
+            measures.add(new GaugeMeasure(name, epoch));
+        }
+        return measures;
+    }
+}
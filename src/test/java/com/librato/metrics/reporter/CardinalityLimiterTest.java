@@ -0,0 +1,78 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.librato.metrics.client.Tag;
+import org.junit.After;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class CardinalityLimiterTest {
+    MetricRegistry registry = new MetricRegistry();
+
+    @After
+    public void tearDown() throws Exception {
+        Librato.cardinalityLimiter.set(null);
+    }
+
+    @Test
+    public void testEstimatesDistinctValues() throws Exception {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = 0; i < 100000; i++) {
+            sketch.offer("user-" + (i % 20000));
+        }
+        assertThat((double) sketch.cardinality()).isCloseTo(20000, within(2000.0));
+        assertThat(sketch.offer("user-1")).isFalse();
+    }
+
+    @Test
+    public void testSendsCombinationsPastTheLimitToTheOverflowSeries() throws Exception {
+        CardinalityLimiter limiter = new CardinalityLimiter(10);
+        Librato.cardinalityLimiter.set(limiter);
+        Counter first = Librato.metric(registry, "logins").tag("uid", 0).counter();
+        for (int i = 0; i < 50; i++) {
+            Librato.metric(registry, "logins").tag("uid", i).counter().inc();
+        }
+        Librato.metric(registry, "other").tag("uid", 0).counter();
+
+        assertThat(registry.getCounters()).hasSize(12);
+        assertThat(Librato.metric(registry, "logins").tag("uid", 0).counter()).isSameAs(first);
+        Counter overflow = Librato.metric(registry, "logins").tag("uid", 49).counter();
+        assertThat(overflow.getCount()).isEqualTo(40);
+        assertThat(registry.getCounters()).containsKey(Json.serialize(new Signal("logins", null,
+                asList(new Tag("cardinality", "overflow")), false)));
+        assertThat((double) limiter.getRejected()).isCloseTo(40, within(2.0));
+        assertThat(limiter.getAdmitted("logins")).isEqualTo(10);
+    }
+
+    @Test
+    public void testCountsDistinctRejectedCombinations() throws Exception {
+        CardinalityLimiter limiter = new CardinalityLimiter(10);
+        for (int i = 0; i < 100000; i++) {
+            limiter.admit("logins", "series-" + i);
+            limiter.admit("logins", "series-" + (i / 2));
+        }
+        assertThat((double) limiter.getRejected()).isCloseTo(99990, within(99990 * 0.05));
+    }
+
+    @Test
+    public void testTemplatesDoNotKeepOverflowedValues() throws Exception {
+        Librato.cardinalityLimiter.set(new CardinalityLimiter(1));
+        MetricTemplate<Counter> template = Librato.metric(registry, "logins").source("web").counterTemplate("uid");
+        Counter admitted = template.get(1);
+        Counter overflow = template.get(2);
+
+        assertThat(overflow).isNotSameAs(admitted);
+        assertThat(template.get(3)).isSameAs(overflow);
+        assertThat(registry.getCounters()).containsKey(Json.serialize(new Signal("logins", "overflow",
+                asList(new Tag("cardinality", "overflow")), false)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsEmptyLimit() throws Exception {
+        new CardinalityLimiter(0);
+    }
+}
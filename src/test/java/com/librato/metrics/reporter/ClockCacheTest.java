@@ -0,0 +1,101 @@
+package com.librato.metrics.reporter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClockCacheTest {
+    @Test
+    public void testComputesConcurrentMissesOnce() throws Exception {
+        final ClockCache<String, String> cache = new ClockCache<String, String>(10);
+        final AtomicInteger invocations = new AtomicInteger();
+        final CountDownLatch computing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Supplier<String> supplier = new Supplier<String>() {
+            @Override
+            public String get() {
+                invocations.incrementAndGet();
+                computing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "value";
+            }
+        };
+        final List<String> results = new ArrayList<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    String value = cache.get("key", supplier);
+                    synchronized (results) {
+                        results.add(value);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        computing.await();
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(invocations.get()).isEqualTo(1);
+        assertThat(results).hasSize(8).containsOnly("value");
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHits()).isEqualTo(7);
+    }
+
+    @Test
+    public void testGivesReferencedEntriesASecondChance() throws Exception {
+        ClockCache<String, String> cache = new ClockCache<String, String>(2);
+        cache.get("a", value("a"));
+        cache.get("b", value("b"));
+        cache.get("a", value("a"));
+        cache.get("c", value("c"));
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.getEvictions()).isEqualTo(1);
+        cache.get("a", value("a"));
+        assertThat(cache.getMisses()).isEqualTo(3);
+        cache.get("b", value("b"));
+        assertThat(cache.getMisses()).isEqualTo(4);
+    }
+
+    @Test
+    public void testDropsRemovedEntriesBelowTheMaximumSize() throws Exception {
+        ClockCache<String, String> cache = new ClockCache<String, String>(1000);
+        cache.get("kept", value("kept"));
+        for (int i = 0; i < 100000; i++) {
+            cache.get("churn", value("churn"));
+            cache.remove("churn");
+        }
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.clockSize()).isLessThan(100);
+        assertThat(cache.get("kept", value("other"))).isEqualTo("kept");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsEmptyCache() throws Exception {
+        new ClockCache<String, String>(0);
+    }
+
+    private Supplier<String> value(final String value) {
+        return new Supplier<String>() {
+            @Override
+            public String get() {
+                return value;
+            }
+        };
+    }
+}
@@ -0,0 +1,43 @@
+package com.librato.metrics.reporter;
+
+import com.librato.metrics.client.Tag;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompactNameTest {
+    @Test
+    public void testEncodesSourceAndTags() throws Exception {
+        Signal signal = new Signal("foo", "bar", asList(new Tag("region", "us-east-1"), new Tag("az", "b")), false);
+        assertThat(CompactName.encode(signal)).isEqualTo("~foo|bar|region=us-east-1|az=b");
+        assertThat(Signal.decode("~foo|bar|region=us-east-1|az=b")).isEqualTo(signal);
+    }
+
+    @Test
+    public void testRoundTripsEscapedCharacters() throws Exception {
+        Signal signal = new Signal("a|b=c\\d", "~src|", asList(new Tag("k=ey", "va|l=ue\\")), true);
+        String encoded = CompactName.encode(signal);
+        assertThat(encoded).isEqualTo("~a\\|b\\=c\\\\d|~src\\||k\\=ey=va\\|l\\=ue\\\\|!");
+        assertThat(Signal.decode(encoded)).isEqualTo(signal);
+    }
+
+    @Test
+    public void testOmitsMissingSource() throws Exception {
+        Signal tagged = new Signal("foo", null, asList(new Tag("!", "!")), true);
+        assertThat(Signal.decode(CompactName.encode(tagged))).isEqualTo(tagged);
+        Signal sourced = new Signal("foo", "bar");
+        assertThat(CompactName.encode(sourced)).isEqualTo("~foo|bar");
+        assertThat(Signal.decode("~foo|bar")).isEqualTo(sourced);
+        assertThat(Signal.decode("~foo|")).isEqualTo(new Signal("foo", null, Collections.<Tag>emptyList(), false));
+    }
+
+    @Test
+    public void testLeavesPlainNamesAlone() throws Exception {
+        assertThat(Signal.decode("~foo")).isEqualTo(new Signal("~foo"));
+        assertThat(Signal.decode("~foo|bar|baz")).isEqualTo(new Signal("~foo|bar|baz"));
+        assertThat(CompactName.decode("foo")).isNull();
+    }
+}
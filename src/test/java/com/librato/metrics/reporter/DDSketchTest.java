@@ -0,0 +1,122 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Snapshot;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class DDSketchTest {
+    @Test
+    public void testComputesQuantilesWithinTheRelativeAccuracy() throws Exception {
+        DDSketch sketch = new DDSketch(0.01, 2048);
+        Random random = new Random(42);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1 + (long) Math.exp(random.nextDouble() * 20);
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+        for (double quantile : new double[]{0.01, 0.5, 0.75, 0.95, 0.99, 0.999}) {
+            double expected = values[(int) (quantile * (values.length - 1))];
+            assertThat(sketch.getQuantile(quantile)).isCloseTo(expected, within(expected * 0.01));
+        }
+        assertThat(sketch.getCount()).isEqualTo(100000);
+        assertThat(sketch.getMin()).isEqualTo(values[0]);
+        assertThat(sketch.getMax()).isEqualTo(values[values.length - 1]);
+    }
+
+    @Test
+    public void testMergesWithoutLosingAccuracy() throws Exception {
+        DDSketch low = new DDSketch(0.02, 128);
+        DDSketch high = low.emptyCopy();
+        DDSketch all = low.emptyCopy();
+        for (int i = 1; i <= 1000; i++) {
+            low.add(i);
+            high.add(1000 + i);
+            all.add(i);
+            all.add(1000 + i);
+        }
+        low.merge(high);
+        assertThat(low.getCount()).isEqualTo(2000);
+        assertThat(low.getSum()).isEqualTo(all.getSum());
+        for (double quantile : new double[]{0.5, 0.9, 0.99}) {
+            assertThat(low.getQuantile(quantile)).isEqualTo(all.getQuantile(quantile));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRefusesToMergeDifferentAccuracies() throws Exception {
+        new DDSketch(0.01, 128).merge(new DDSketch(0.02, 128));
+    }
+
+    @Test
+    public void testFoldsTheLowestBinsPastTheMaximum() throws Exception {
+        DDSketch sketch = new DDSketch(0.02, 16);
+        for (int i = 1; i <= 100000; i++) {
+            sketch.add(i);
+        }
+        // 16 bins of 4% cover the top 50% of the values
+        assertThat(sketch.getQuantile(0.99)).isCloseTo(99000, within(99000 * 0.02));
+        assertThat(sketch.getQuantile(0.75)).isCloseTo(75000, within(75000 * 0.02));
+        assertThat(sketch.getQuantile(0.01)).isGreaterThan(1000);
+        assertThat(sketch.getMin()).isEqualTo(1);
+    }
+
+    @Test
+    public void testKeepsTheAccuracyWithAWideRangeOutlier() throws Exception {
+        SketchReservoir reservoir = new SketchReservoir();
+        for (int i = 0; i < 1000; i++) {
+            reservoir.update(TimeUnit.MILLISECONDS.toNanos(5));
+        }
+        reservoir.update(TimeUnit.SECONDS.toNanos(30));
+        Snapshot snapshot = reservoir.getSnapshot();
+        double fiveMillis = TimeUnit.MILLISECONDS.toNanos(5);
+        assertThat(snapshot.getMedian()).isCloseTo(fiveMillis, within(fiveMillis * 0.02));
+        assertThat(snapshot.get99thPercentile()).isCloseTo(fiveMillis, within(fiveMillis * 0.02));
+        assertThat(snapshot.getMax()).isEqualTo(TimeUnit.SECONDS.toNanos(30));
+    }
+
+    @Test
+    public void testCountsZeroAndNegativeValues() throws Exception {
+        DDSketch sketch = new DDSketch(0.02, 128);
+        sketch.add(0);
+        sketch.add(-5);
+        sketch.add(100);
+        assertThat(sketch.getQuantile(0.5)).isEqualTo(0);
+        assertThat(sketch.getQuantile(1)).isEqualTo(100);
+        assertThat(sketch.getMin()).isEqualTo(0);
+    }
+
+    @Test
+    public void testReservoirStartsANewIntervalWithEverySnapshot() throws Exception {
+        SketchReservoir reservoir = new SketchReservoir();
+        for (int i = 1; i <= 100; i++) {
+            reservoir.update(i * 1000);
+        }
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertThat(snapshot.size()).isEqualTo(100);
+        assertThat(snapshot.getMean()).isEqualTo(50500);
+        assertThat(snapshot.getMedian()).isCloseTo(50000, within(50000 * 0.02));
+        assertThat(snapshot.getValues()).hasSize(100);
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testComputesSeveralQuantilesInOnePass() throws Exception {
+        DDSketch sketch = new DDSketch(0.02, 64);
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            sketch.add(random.nextInt(3) == 0 ? 0 : random.nextInt(1000000));
+        }
+        double[] quantiles = {0, 0.2, 0.5, 0.75, 0.95, 0.99, 0.999, 1};
+        double[] values = new SketchSnapshot(sketch).getQuantiles(quantiles);
+        for (int i = 0; i < quantiles.length; i++) {
+            assertThat(values[i]).isEqualTo(sketch.getQuantile(quantiles[i]));
+        }
+    }
+}
@@ -73,4 +73,56 @@ public class DeltaTrackerTest {
         assertThat(converter.peekDelta("foo", 1), equalTo(1L));
         assertThat(converter.peekDelta("foo", 1), equalTo(1L));
     }
+
+    @Test
+    public void testPeekAndCommitUsesStableSlots() throws Exception {
+        int foo = converter.slot("foo");
+        int bar = converter.slot("bar");
+        assertThat(converter.slot("foo"), is(foo));
+        assertThat(bar, not(foo));
+
+        assertThat(converter.peekAndCommit(foo, 5), is(5L));
+        assertThat(converter.peekAndCommit(foo, 7), is(2L));
+        assertThat(converter.peekAndCommit(foo, 7), is(0L));
+        assertThat(converter.peekAndCommit(foo, 3), is(3L));
+        assertThat(converter.getDelta("foo", 4), equalTo(1L));
+        assertThat(converter.peekAndCommit(bar, 1), is(1L));
+    }
+
+    @Test
+    public void testGrowsBeyondOnePage() throws Exception {
+        for (int i = 0; i < 5000; i++) {
+            converter.getDelta("metric" + i, i);
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertThat(converter.getDelta("metric" + i, i + 1), equalTo(1L));
+        }
+    }
+
+    @Test
+    public void testCountsIdleCommits() throws Exception {
+        int foo = converter.slot("foo");
+        converter.peekAndCommit(foo, 5);
+        assertThat(converter.idleCommits(foo), is(0));
+        converter.peekAndCommit(foo, 5);
+        converter.peekAndCommit(foo, 5);
+        assertThat(converter.idleCommits(foo), is(2));
+        converter.peekAndCommit(foo, 0);
+        assertThat(converter.idleCommits(foo), is(0));
+    }
+
+    @Test
+    public void testReusesSlotsOfRemovedNamesAfterASweep() throws Exception {
+        int foo = converter.slot("foo");
+        converter.getDelta("foo", 10);
+        assertThat(converter.size(), is(1));
+
+        converter.remove("foo");
+        assertThat(converter.size(), is(0));
+        assertThat(converter.slot("bar"), not(foo));
+        converter.sweep();
+        assertThat(converter.slot("baz"), is(foo));
+        assertThat(converter.getDelta("baz", 3), equalTo(3L));
+        assertThat(converter.getDelta("foo", 4), equalTo(4L));
+    }
 }
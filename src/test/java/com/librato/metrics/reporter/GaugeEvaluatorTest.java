@@ -0,0 +1,114 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GaugeEvaluatorTest {
+    MetricRegistry registry = new MetricRegistry();
+    CountDownLatch release = new CountDownLatch(1);
+    GaugeEvaluator evaluator;
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        if (evaluator != null) {
+            evaluator.shutdown();
+        }
+    }
+
+    @Test
+    public void testSkipsGaugesWhichTimeOut() throws Exception {
+        evaluator = new GaugeEvaluator(4, 100, TimeUnit.MILLISECONDS, registry, "librato");
+        SortedMap<String, Gauge> gauges = new TreeMap<String, Gauge>();
+        gauges.put("a", constant(1));
+        gauges.put("b", stuck());
+        gauges.put("c", constant(3));
+
+        for (int i = 0; i < GaugeEvaluator.SLOW_STREAK; i++) {
+            double[] values = evaluator.evaluate(gauges);
+            assertThat(values[0]).isEqualTo(1);
+            assertThat(values[1]).isNaN();
+            assertThat(values[2]).isEqualTo(3);
+        }
+        assertThat(registry.counter("librato.gauges.timeouts").getCount()).isEqualTo(3);
+        assertThat(registry.getGauges().get("librato.gauges.slow").getValue()).isEqualTo(1);
+
+        gauges.put("b", constant(2));
+        assertThat(evaluator.evaluate(gauges)[1]).isEqualTo(2);
+        assertThat(evaluator.getSlowGauges()).isEqualTo(0);
+    }
+
+    @Test
+    public void testDoesNotWaitForGaugesStuckBehindSlowOnes() throws Exception {
+        evaluator = new GaugeEvaluator(1, 100, TimeUnit.MILLISECONDS, registry, "librato");
+        SortedMap<String, Gauge> gauges = new TreeMap<String, Gauge>();
+        gauges.put("a", stuck());
+        for (int i = 0; i < 10; i++) {
+            gauges.put("b" + i, constant(i));
+        }
+
+        long start = System.nanoTime();
+        double[] values = evaluator.evaluate(gauges);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000);
+        assertThat(values[0]).isNaN();
+        assertThat(values[10]).isNaN();
+        assertThat(registry.counter("librato.gauges.timeouts").getCount()).isEqualTo(11);
+    }
+
+    @Test
+    public void testForgetsTimeoutsOfRemovedGauges() throws Exception {
+        evaluator = new GaugeEvaluator(1, 50, TimeUnit.MILLISECONDS, registry, "librato");
+        SortedMap<String, Gauge> gauges = new TreeMap<String, Gauge>();
+        gauges.put("a", stuck());
+        for (int i = 0; i < GaugeEvaluator.SLOW_STREAK; i++) {
+            evaluator.evaluate(gauges);
+        }
+        assertThat(evaluator.getSlowGauges()).isEqualTo(1);
+
+        evaluator.remove("a");
+        assertThat(evaluator.getSlowGauges()).isEqualTo(0);
+    }
+
+    @Test
+    public void testRemovesSlowGaugeOnShutdown() throws Exception {
+        evaluator = new GaugeEvaluator(1, 100, TimeUnit.MILLISECONDS, registry, "librato");
+        assertThat(registry.getGauges()).containsKey("librato.gauges.slow");
+        evaluator.shutdown();
+        assertThat(registry.getGauges()).doesNotContainKey("librato.gauges.slow");
+    }
+
+    private Gauge<Integer> constant(final int value) {
+        return new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return value;
+            }
+        };
+    }
+
+    private Gauge<Integer> stuck() {
+        return new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                // ignores interrupts, like a gauge stuck in blocking IO
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // keep waiting
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+}
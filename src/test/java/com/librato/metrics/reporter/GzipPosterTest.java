@@ -0,0 +1,64 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.MetricRegistry;
+import com.librato.metrics.client.Duration;
+import com.librato.metrics.client.HttpResponse;
+import com.librato.metrics.client.IPoster;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class GzipPosterTest {
+    MetricRegistry registry = new MetricRegistry();
+    Map<String, String> sentHeaders;
+    byte[] sentPayload;
+    IPoster delegate = new IPoster() {
+        @Override
+        public HttpResponse post(String uri, Duration connectTimeout, Duration readTimeout,
+                                 Map<String, String> headers, byte[] payload) {
+            sentHeaders = headers;
+            sentPayload = payload;
+            return null;
+        }
+    };
+
+    @Test
+    public void testCompressesAndCountsBytes() throws Exception {
+        GzipPoster poster = new GzipPoster(delegate, Deflater.BEST_COMPRESSION,
+                GzipPoster.uncompressedBytes(registry, "librato"),
+                GzipPoster.compressedBytes(registry, "librato"));
+        StringBuilder json = new StringBuilder("{\"gauges\":[");
+        for (int i = 0; i < 100; i++) {
+            json.append("{\"name\":\"a.rather.long.metric.name\",\"value\":").append(i).append("},");
+        }
+        byte[] payload = json.append("{}]}").toString().getBytes("UTF-8");
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Content-Type", "application/json");
+
+        poster.post("https://metrics-api.librato.com/v1/metrics",
+                new Duration(1, TimeUnit.SECONDS), new Duration(1, TimeUnit.SECONDS), headers, payload);
+
+        assertThat(sentHeaders).containsEntry("Content-Encoding", "gzip").containsEntry("Content-Type", "application/json");
+        assertThat(headers).doesNotContainKey("Content-Encoding");
+        assertThat(StreamingPayloadEncoderTest.gunzip(sentPayload)).isEqualTo(payload);
+        assertThat(registry.counter("librato.compression.uncompressedBytes").getCount()).isEqualTo(payload.length);
+        assertThat(registry.counter("librato.compression.compressedBytes").getCount()).isEqualTo(sentPayload.length);
+        assertThat(sentPayload.length).isLessThan(payload.length / 4);
+    }
+
+    @Test
+    public void testRejectsInvalidLevels() throws Exception {
+        try {
+            GzipPoster.checkLevel(10);
+            fail("Expected an invalid level to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).contains("10");
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.MetricRegistry;
+import com.librato.metrics.client.Duration;
+import com.librato.metrics.client.HttpResponse;
+import com.librato.metrics.client.IPoster;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class InstrumentedPosterTest {
+    MetricRegistry registry = new MetricRegistry();
+    ReporterStats stats = new ReporterStats(registry, "librato");
+    int responseCode = 200;
+    RuntimeException failure;
+    IPoster delegate = new IPoster() {
+        @Override
+        public HttpResponse post(String uri, Duration connectTimeout, Duration readTimeout,
+                                 Map<String, String> headers, byte[] payload) {
+            if (failure != null) {
+                throw failure;
+            }
+            return new HttpResponse() {
+                @Override
+                public int getResponseCode() {
+                    return responseCode;
+                }
+
+                @Override
+                public byte[] getResponseBody() {
+                    return new byte[0];
+                }
+            };
+        }
+    };
+
+    @Test
+    public void testRecordsLatencyBytesAndFailuresByCause() throws Exception {
+        InstrumentedPoster poster = new InstrumentedPoster(delegate, stats, true);
+        post(poster, 10);
+        responseCode = 503;
+        post(poster, 20);
+        failure = new RuntimeException(new SocketTimeoutException());
+        try {
+            post(poster, 30);
+            fail("Expected the failure to be rethrown");
+        } catch (RuntimeException e) {
+            assertThat(e).isSameAs(failure);
+        }
+
+        assertThat(stats.postLatency.getCount()).isEqualTo(3);
+        assertThat(stats.postBytes.getSnapshot().getValues()).containsExactly(10, 20, 30);
+        assertThat(registry.counter("librato.post.failures.503").getCount()).isEqualTo(1);
+        assertThat(registry.counter("librato.post.failures.SocketTimeoutException").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testExcludesReportPostsFromTheStatsClock() throws Exception {
+        IPoster slow = new IPoster() {
+            @Override
+            public HttpResponse post(String uri, Duration connectTimeout, Duration readTimeout,
+                                     Map<String, String> headers, byte[] payload) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return delegate.post(uri, connectTimeout, readTimeout, headers, payload);
+            }
+        };
+        long tick = stats.tick();
+        post(new InstrumentedPoster(slow, stats, true), 1);
+        assertThat(stats.tick() - tick).isLessThan(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    private void post(IPoster poster, int bytes) {
+        poster.post("https://metrics-api.librato.com/v1/metrics",
+                new Duration(1, TimeUnit.SECONDS),
+                new Duration(1, TimeUnit.SECONDS),
+                Collections.<String, String>emptyMap(),
+                new byte[bytes]);
+    }
+}
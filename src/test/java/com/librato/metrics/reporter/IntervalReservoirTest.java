@@ -0,0 +1,109 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class IntervalReservoirTest {
+    IntervalReservoir reservoir = new IntervalReservoir();
+
+    @Test
+    public void testComputesPercentilesWithinThePrecision() throws Exception {
+        for (int i = 1; i <= 100000; i++) {
+            reservoir.update(i);
+        }
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertThat(snapshot.size()).isEqualTo(100000);
+        assertThat(snapshot.getMedian()).isCloseTo(50000, within(50000 * 0.02));
+        assertThat(snapshot.get99thPercentile()).isCloseTo(99000, within(99000 * 0.02));
+        assertThat(snapshot.get999thPercentile()).isCloseTo(99900, within(99900 * 0.02));
+        assertThat(snapshot.getMean()).isCloseTo(50000, within(50000 * 0.02));
+        assertThat(snapshot.getMin()).isEqualTo(1);
+        assertThat((double) snapshot.getMax()).isCloseTo(100000, within(100000 * 0.02));
+    }
+
+    @Test
+    public void testStartsANewIntervalWithEverySnapshot() throws Exception {
+        reservoir.update(1000);
+        reservoir.update(2000);
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(2);
+
+        Snapshot empty = reservoir.getSnapshot();
+        assertThat(empty.size()).isEqualTo(0);
+        assertThat(empty.getMedian()).isEqualTo(0);
+
+        reservoir.update(5);
+        Snapshot next = reservoir.getSnapshot();
+        assertThat(next.getValues()).containsExactly(5);
+    }
+
+    @Test
+    public void testKeepsBucketsWithinThePrecision() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long value = (long) (Math.pow(2, random.nextDouble() * 41));
+            long midpoint = reservoir.midpoint(reservoir.index(value));
+            assertThat((double) midpoint).isCloseTo(value, within(Math.max(1, value / 32.0)));
+        }
+        assertThat(reservoir.index(IntervalReservoir.DEFAULT_HIGHEST_TRACKABLE_VALUE)).isLessThan(1300);
+    }
+
+    @Test
+    public void testLosesNoUpdatesWhileSnapshotting() throws Exception {
+        final AtomicBoolean done = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 200000; i++) {
+                        reservoir.update(i);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        long total = 0;
+        while (!done.get()) {
+            done.set(true);
+            for (Thread thread : threads) {
+                if (thread.isAlive()) {
+                    done.set(false);
+                }
+            }
+            total += reservoir.getSnapshot().size();
+        }
+        total += reservoir.getSnapshot().size();
+        assertThat(total).isEqualTo(800000);
+    }
+
+    @Test
+    public void testIsSelectableThroughTheFluentHelper() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        assertThat(Librato.metric(registry, "latency").interval().timer().getSnapshot())
+                .isInstanceOf(BucketSnapshot.class);
+    }
+
+    @Test
+    public void testComputesSeveralQuantilesInOnePass() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            reservoir.update(random.nextInt(1000000));
+        }
+        BucketSnapshot snapshot = (BucketSnapshot) reservoir.getSnapshot();
+        double[] quantiles = {0, 0.5, 0.75, 0.95, 0.98, 0.99, 0.999, 1};
+        double[] values = snapshot.getQuantiles(quantiles);
+        for (int i = 0; i < quantiles.length; i++) {
+            assertThat(values[i]).isEqualTo(snapshot.getValue(quantiles[i]));
+        }
+    }
+}
@@ -3,12 +3,17 @@ package com.librato.metrics.reporter;
 import com.codahale.metrics.*;
 import com.librato.metrics.client.*;
 import org.assertj.core.api.Assertions;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -45,6 +50,15 @@ public class LibratoReporterTest {
         };
     }
 
+    private static boolean isClassPresent(String name) {
+        try {
+            Class.forName(name);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
     private void report(LibratoReporter reporter) {
         reporter.report(registry.getGauges(),
                 registry.getCounters(),
@@ -81,6 +95,44 @@ public class LibratoReporterTest {
                 new GaugeMeasure("foo", 1));
     }
 
+    @Test
+    public void testReadsPrimitiveGaugesWithoutBoxing() throws Exception {
+        Librato.metric(registry, "ratio").gauge(new DoubleGauge() {
+            @Override
+            public double getDoubleValue() {
+                return 0.5;
+            }
+
+            @Override
+            public Double getValue() {
+                throw new AssertionError("boxed");
+            }
+        });
+        Librato.metric(registry, "missing").gauge(new DoubleGauge() {
+            @Override
+            public double getDoubleValue() {
+                return Double.NaN;
+            }
+        });
+        Librato.metric(registry, "size").gauge(new LongGauge() {
+            @Override
+            public long getLongValue() {
+                return 42;
+            }
+
+            @Override
+            public Long getValue() {
+                throw new AssertionError("boxed");
+            }
+        });
+        LibratoReporter reporter = new LibratoReporter(atts);
+        report(reporter);
+        HashSet<IMeasure> measures = new HashSet<IMeasure>(captor.getValue().getMeasures());
+        assertThat(measures).containsOnly(
+                new GaugeMeasure("ratio", 0.5),
+                new GaugeMeasure("size", 42));
+    }
+
     @Test
     public void testRejectsNonTaggedMetrics() throws Exception {
         atts.enableLegacy = false;
@@ -381,4 +433,272 @@ public class LibratoReporterTest {
         }
         Assertions.fail("Did not find the right metric");
     }
+
+    @Test
+    public void testCachesResolvedSignalsUntilRemoved() throws Exception {
+        atts.registry = registry;
+        atts.enableLegacy = false;
+        atts.enableTagging = true;
+        Meter meter = Librato.metric(registry, "foo").tag("a", "z").meter();
+        LibratoReporter reporter = new LibratoReporter(atts);
+        meter.mark();
+        report(reporter);
+        SignalCache cache = reporter.getSignalCache();
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(1);
+        meter.mark();
+        report(reporter);
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHits()).isEqualTo(1);
+
+        Librato.metric(registry, "foo").tag("a", "z").remove();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testPostsChunksConcurrently() throws Exception {
+        atts.chunkSize = 2;
+        atts.postConcurrency = 2;
+        for (int i = 0; i < 5; i++) {
+            registry.counter("counter-" + i).inc();
+        }
+        LibratoReporter reporter = new LibratoReporter(atts);
+        report(reporter);
+        reporter.stop();
+        assertThat(captor.getAllValues()).hasSize(3);
+        HashSet<IMeasure> measures = new HashSet<IMeasure>();
+        for (Measures chunk : captor.getAllValues()) {
+            measures.addAll(chunk.getMeasures());
+        }
+        assertThat(measures).hasSize(5);
+    }
+
+    @Test
+    public void testRecordsStatsInASeparateRegistry() throws Exception {
+        MetricRegistry statsRegistry = new MetricRegistry();
+        atts.registry = registry;
+        atts.enableStats = true;
+        atts.statsRegistry = statsRegistry;
+        registry.meter("idle");
+        registry.counter("foo").inc();
+        LibratoReporter reporter = new LibratoReporter(atts);
+        report(reporter);
+
+        assertThat(statsRegistry.counter("librato.report.skippedIdle").getCount()).isEqualTo(1);
+        assertThat(statsRegistry.histogram("librato.report.measures").getSnapshot().getValues()).containsExactly(1);
+        assertThat(statsRegistry.timer("librato.collect.counters").getCount()).isEqualTo(1);
+        // the client builds its payloads on its own threads, where encoding cannot be timed
+        assertThat(statsRegistry.timer("librato.encode").getCount()).isEqualTo(0);
+        assertThat(registry.getNames()).containsOnly("idle", "foo");
+    }
+
+    @Test
+    public void testDoesNotCountPostsOfTheClientAsEncoding() throws Exception {
+        // the client encodes its credentials with JAXB, which is not part of Java 11 and later
+        Assume.assumeTrue(isClassPresent("javax.xml.bind.DatatypeConverter"));
+        final long delayMillis = 200;
+        MetricRegistry statsRegistry = new MetricRegistry();
+        atts.registry = registry;
+        atts.enableStats = true;
+        atts.statsRegistry = statsRegistry;
+        atts.email = "email";
+        atts.token = "token";
+        atts.chunkSize = 1;
+        atts.libratoClientFactory = new DefaultLibratoClientFactory();
+        atts.poster = new IPoster() {
+            @Override
+            public HttpResponse post(String uri, Duration connectTimeout, Duration readTimeout,
+                                     Map<String, String> headers, byte[] payload) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new HttpResponse() {
+                    @Override
+                    public int getResponseCode() {
+                        return 200;
+                    }
+
+                    @Override
+                    public byte[] getResponseBody() {
+                        return new byte[0];
+                    }
+                };
+            }
+        };
+        registry.counter("foo").inc();
+        registry.counter("bar").inc();
+        report(new LibratoReporter(atts));
+        atts.enableStreaming = true;
+        report(new LibratoReporter(atts));
+
+        Timer encode = statsRegistry.timer("librato.encode");
+        assertThat(statsRegistry.timer("librato.post.latency").getCount()).isGreaterThanOrEqualTo(3);
+        assertThat(encode.getCount()).isEqualTo(1);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(encode.getSnapshot().getMax())).isLessThan(delayMillis / 2);
+    }
+
+    @Test
+    public void testForgetsDeltasOfRemovedMetrics() throws Exception {
+        atts.registry = registry;
+        atts.metricFilter = new MetricFilter() {
+            @Override
+            public boolean matches(String name, Metric metric) {
+                return !name.startsWith("ignored");
+            }
+        };
+        registry.meter("ignored").mark();
+        registry.meter("kept").mark();
+        LibratoReporter reporter = new LibratoReporter(atts);
+        assertThat(reporter.getDeltaTracker().size()).isEqualTo(1);
+
+        Librato.metric(registry, "short-lived").tag("request", "1").timer().update(1, TimeUnit.SECONDS);
+        reporter.report();
+        assertThat(reporter.getDeltaTracker().size()).isEqualTo(2);
+        Librato.metric(registry, "short-lived").tag("request", "1").remove();
+        assertThat(reporter.getDeltaTracker().size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRemovesIdleSeriesAfterTtl() throws Exception {
+        atts.registry = registry;
+        atts.idleSeriesTtl = 2;
+        LibratoReporter reporter = new LibratoReporter(atts);
+        registry.counter("plain").inc();
+        MetricTemplate<Counter> template = Librato.metric(registry, "idle").counterTemplate("request");
+        Counter idle = template.get(1);
+        idle.inc();
+        Counter busy = Librato.metric(registry, "busy").tag("request", "2").counter();
+
+        for (int i = 0; i < 3; i++) {
+            busy.inc();
+            reporter.report();
+        }
+        assertThat(registry.getCounters()).hasSize(2);
+        assertThat(registry.getCounters().values()).containsOnly(busy, registry.counter("plain"));
+        assertThat(reporter.getDeltaTracker().size()).isEqualTo(2);
+
+        Counter recreated = Librato.metric(registry, "idle").tag("request", "1").counter();
+        assertThat(recreated).isNotSameAs(idle);
+        assertThat(template.get(1)).isSameAs(recreated);
+        assertThat(registry.getCounters()).hasSize(3);
+    }
+
+    @Test
+    public void testCollectsInParallelInTheSameOrder() throws Exception {
+        atts.expansionConfig = new MetricExpansionConfig(EnumSet.of(ExpandedMetric.COUNT, ExpandedMetric.MEDIAN));
+        for (int i = 0; i < 2500; i++) {
+            registry.counter("counter." + i).inc(i);
+            registry.histogram("histogram." + i).update(i);
+            registry.meter("meter." + i).mark(i + 1);
+            Librato.metric(registry, "gauge").tag("index", i).gauge(new LongGauge() {
+                @Override
+                public long getLongValue() {
+                    return 42;
+                }
+            });
+        }
+        LibratoReporter serial = new LibratoReporter(atts);
+        atts.collectionParallelism = 4;
+        LibratoReporter parallel = new LibratoReporter(atts);
+        try {
+            report(serial);
+            List<IMeasure> expected = captor.getValue().getMeasures();
+            report(parallel);
+            List<IMeasure> actual = captor.getValue().getMeasures();
+
+            assertThat(actual).hasSize(2500 * 6);
+            assertThat(actual).isEqualTo(expected);
+        } finally {
+            parallel.stop();
+        }
+    }
+
+    @Test
+    public void testRollsUpSketchesOfTaggedSeries() throws Exception {
+        atts.enableLegacy = false;
+        atts.enableTagging = true;
+        atts.enableSketchRollups = true;
+        atts.tags.add(new Tag("root", "tag"));
+        atts.expansionConfig = new MetricExpansionConfig(EnumSet.noneOf(ExpandedMetric.class));
+        for (int i = 1; i <= 100; i++) {
+            Librato.metric(registry, "latency").tag("endpoint", "a").sketch().histogram().update(i);
+            Librato.metric(registry, "latency").tag("endpoint", "b").sketch().histogram().update(100 + i);
+        }
+        LibratoReporter reporter = new LibratoReporter(atts);
+        report(reporter);
+        assertThat(captor.getValue().getMeasures()).containsOnly(
+                new TaggedMeasure("latency", 5050, 100, 1, 100, new Tag("endpoint", "a"), new Tag("root", "tag")),
+                new TaggedMeasure("latency", 15050, 100, 101, 200, new Tag("endpoint", "b"), new Tag("root", "tag")),
+                new TaggedMeasure("latency", 20100, 200, 1, 200, new Tag("root", "tag")));
+
+        report(reporter);
+        assertThat(captor.getValue().getMeasures()).isEmpty();
+    }
+
+    @Test
+    public void testDoesNotRollUpNextToAnUntaggedSeriesOfTheSameName() throws Exception {
+        atts.enableLegacy = false;
+        atts.enableTagging = true;
+        atts.enableSketchRollups = true;
+        atts.expansionConfig = new MetricExpansionConfig(EnumSet.noneOf(ExpandedMetric.class));
+        Librato.metric(registry, "latency").tag("endpoint", "a").sketch().histogram().update(1);
+        Librato.metric(registry, "latency").sketch().histogram().update(2);
+        LibratoReporter reporter = new LibratoReporter(atts);
+        report(reporter);
+        assertThat(captor.getValue().getMeasures()).containsOnly(
+                new TaggedMeasure("latency", 1, 1, 1, 1, new Tag("endpoint", "a")),
+                new TaggedMeasure(new GaugeMeasure("latency", 2, 1, 2, 2)));
+
+        registry.remove("latency");
+        Librato.metric(registry, "latency").tag("endpoint", "a").sketch().histogram().update(3);
+        report(reporter);
+        assertThat(captor.getValue().getMeasures()).containsOnly(
+                new TaggedMeasure("latency", 3, 1, 3, 3, new Tag("endpoint", "a")),
+                new TaggedMeasure(new GaugeMeasure("latency", 3, 1, 3, 3)));
+    }
+
+    @Test
+    public void testDoesNotSnapshotWhenNothingNeedsIt() throws Exception {
+        atts.expansionConfig = new MetricExpansionConfig(EnumSet.of(ExpandedMetric.COUNT));
+        atts.omitComplexGauges = true;
+        final AtomicInteger snapshots = new AtomicInteger();
+        registry.register("foo", new Histogram(new UniformReservoir() {
+            @Override
+            public Snapshot getSnapshot() {
+                snapshots.incrementAndGet();
+                return super.getSnapshot();
+            }
+        })).update(1);
+        LibratoReporter reporter = new LibratoReporter(atts);
+        report(reporter);
+        assertThat(captor.getValue().getMeasures()).containsOnly(new GaugeMeasure("foo.count", 1));
+        assertThat(snapshots.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSendsConfiguredPercentiles() throws Exception {
+        atts.expansionConfig = new MetricExpansionConfig(EnumSet.of(ExpandedMetric.MEDIAN, ExpandedMetric.PCT_99));
+        atts.omitComplexGauges = true;
+        atts.prefix = "app";
+        atts.percentiles = new double[]{0.9, 0.99, 0.9999};
+        atts.metricPercentiles.put("bar", new double[]{0.25});
+        for (int i = 1; i <= 10000; i++) {
+            registry.histogram("foo").update(i);
+            registry.histogram("bar").update(i);
+        }
+        LibratoReporter reporter = new LibratoReporter(atts);
+        report(reporter);
+        List<IMeasure> measures = captor.getValue().getMeasures();
+        Snapshot snapshot = registry.histogram("foo").getSnapshot();
+        assertThat(measures).containsExactly(
+                new GaugeMeasure("app.bar.25th", registry.histogram("bar").getSnapshot().getValue(0.25)),
+                new GaugeMeasure("app.bar.median", registry.histogram("bar").getSnapshot().getMedian()),
+                new GaugeMeasure("app.bar.99th", registry.histogram("bar").getSnapshot().get99thPercentile()),
+                new GaugeMeasure("app.foo.median", snapshot.getMedian()),
+                new GaugeMeasure("app.foo.90th", snapshot.getValue(0.9)),
+                new GaugeMeasure("app.foo.99th", snapshot.get99thPercentile()),
+                new GaugeMeasure("app.foo.9999th", snapshot.getValue(0.9999)));
+    }
 }
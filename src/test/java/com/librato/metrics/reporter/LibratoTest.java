@@ -1,7 +1,10 @@
 package com.librato.metrics.reporter;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.librato.metrics.client.Tag;
 import org.junit.Test;
 
@@ -38,6 +41,26 @@ public class LibratoTest {
                 Librato.metric(registry, "bar").source("baz").tag("region", "us-east-1").histogram());
     }
 
+    @Test
+    public void testFollowsMetricsRemovedFromTheRegistry() throws Exception {
+        Timer timer = Librato.metric(registry, "foo").tag("region", "us-east-1").timer();
+        assertThat(MetricIndex.of(registry).size()).isEqualTo(1);
+        registry.removeMatching(MetricFilter.ALL);
+        assertThat(MetricIndex.of(registry).size()).isEqualTo(0);
+
+        Timer replaced = Librato.metric(registry, "foo").tag("region", "us-east-1").timer();
+        assertThat(replaced).isNotSameAs(timer);
+        assertThat(registry.getTimers().values()).containsExactly(replaced);
+    }
+
+    @Test
+    public void testIndexesMetricsRegisteredBeforeItWasCreated() throws Exception {
+        MetricRegistry other = new MetricRegistry();
+        Counter counter = other.counter("foo");
+        assertThat(Librato.metric(other, "foo").counter()).isSameAs(counter);
+        assertThat(Librato.metric(registry, "foo").counter()).isNotSameAs(counter);
+    }
+
     @Test
     public void testNoNameConversion() throws Exception {
         Librato.metric(registry, "gauge").gauge(new Gauge<Integer>() {
@@ -105,6 +128,23 @@ public class LibratoTest {
                 true));
     }
 
+    @Test
+    public void testCompactNameFormat() throws Exception {
+        Librato.nameFormat.set(NameFormat.COMPACT);
+        try {
+            Librato.metric(registry, "compact").source("bar").tag("region", "us-east-1").counter();
+        } finally {
+            Librato.nameFormat.set(NameFormat.JSON);
+        }
+        String name = registry.getCounters().firstKey();
+        assertThat(name).isEqualTo("~compact|bar|region=us-east-1");
+        assertThat(Signal.decode(name)).isEqualTo(new Signal(
+                "compact",
+                "bar",
+                asList(new Tag("region", "us-east-1")),
+                false));
+    }
+
     @Test
     public void testRemoveTaggedMeter() {
         Librato.metric(registry, "test")
@@ -165,4 +205,14 @@ public class LibratoTest {
         boolean removed = Librato.metric(registry, "test").remove();
         assertThat(removed).isFalse();
     }
+
+    @Test
+    public void testCreatesStripedMetersAndTimers() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        assertThat(Librato.metric(registry, "meter").striped().meter()).isInstanceOf(StripedMeter.class);
+        assertThat(Librato.metric(registry, "timer").striped().interval().timer()).isInstanceOf(StripedTimer.class);
+        assertThat(Librato.metric(registry, "plain").timer()).isNotInstanceOf(StripedTimer.class);
+        assertThat(Librato.metric(registry, "template").striped().timerTemplate("a").get("b"))
+                .isInstanceOf(StripedTimer.class);
+    }
 }
@@ -0,0 +1,60 @@
+package com.librato.metrics.reporter;
+
+import com.librato.metrics.client.GaugeMeasure;
+import com.librato.metrics.client.Measures;
+import com.librato.metrics.client.Tag;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MeasuresChunkerTest {
+    @Test
+    public void testDoesNotSplitSmallReports() throws Exception {
+        Measures measures = measures(3);
+        assertThat(new MeasuresChunker(0, 0).chunk(measures)).containsExactly(measures);
+        assertThat(new MeasuresChunker(3, 0).chunk(measures)).containsExactly(measures);
+    }
+
+    @Test
+    public void testSplitsByMeasureCount() throws Exception {
+        List<Measures> chunks = new MeasuresChunker(2, 0).chunk(measures(5));
+        assertThat(chunks).hasSize(3);
+        assertThat(chunks.get(0).getMeasures()).hasSize(2);
+        assertThat(chunks.get(2).getMeasures()).hasSize(1);
+        assertThat(chunks.get(2).getEpoch()).isEqualTo(42);
+        assertThat(chunks.get(2).getSource()).isEqualTo("source");
+    }
+
+    @Test
+    public void testSplitsByEstimatedBytes() throws Exception {
+        long perMeasure = MeasuresChunker.estimateBytes(new GaugeMeasure("metric-0", 0));
+        List<Measures> chunks = new MeasuresChunker(0, perMeasure * 3).chunk(measures(7));
+        assertThat(chunks).hasSize(3);
+        assertThat(chunks.get(0).getMeasures()).hasSize(3);
+    }
+
+    @Test
+    public void testPostsEveryChunkInASingleRequest() throws Exception {
+        assertThat(new MeasuresChunker(0, 0).getClientBatchSize()).isEqualTo(0);
+        assertThat(new MeasuresChunker(200, 0).getClientBatchSize()).isEqualTo(200);
+        assertThat(new MeasuresChunker(200, 64 * 1024).getClientBatchSize()).isEqualTo(200);
+
+        long perMeasure = MeasuresChunker.estimateBytes(new GaugeMeasure("metric-0", 0));
+        MeasuresChunker bytesOnly = new MeasuresChunker(0, perMeasure * 600);
+        List<Measures> chunks = bytesOnly.chunk(measures(1000));
+        assertThat(chunks.get(0).getMeasures().size()).isGreaterThan(500);
+        // the client would otherwise split the chunk again at its default of 500 measures
+        assertThat(chunks.get(0).partition(bytesOnly.getClientBatchSize())).hasSize(1);
+    }
+
+    private Measures measures(int count) {
+        Measures measures = new Measures("source", Collections.<Tag>emptyList(), 42L, 60);
+        for (int i = 0; i < count; i++) {
+            measures.add(new GaugeMeasure("metric-" + i, i));
+        }
+        return measures;
+    }
+}
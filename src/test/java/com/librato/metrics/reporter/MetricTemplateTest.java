@@ -0,0 +1,73 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.librato.metrics.client.Tag;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MetricTemplateTest {
+    MetricRegistry registry = new MetricRegistry();
+
+    @Test
+    public void testReturnsTheFluentHelperMetrics() throws Exception {
+        MetricTemplate<Timer> template = Librato.metric(registry, "latency")
+                .source("web")
+                .tag("service", "api")
+                .timerTemplate("region", "method");
+        Timer timer = template.get("us-east-1", "GET");
+
+        assertThat(template.get("us-east-1", "GET")).isSameAs(timer);
+        assertThat(timer).isSameAs(Librato.metric(registry, "latency")
+                .source("web")
+                .tag("service", "api")
+                .tag("region", "us-east-1")
+                .tag("method", "GET")
+                .timer());
+        assertThat(template.get("us-east-1", "POST")).isNotSameAs(timer);
+        assertThat(Signal.decode(registry.getTimers().firstKey())).isEqualTo(new Signal(
+                "latency",
+                "web",
+                asList(new Tag("service", "api"), new Tag("region", "us-east-1"), new Tag("method", "GET")),
+                false));
+    }
+
+    @Test
+    public void testKeysHandlesByEveryValue() throws Exception {
+        MetricTemplate<Counter> template = Librato.metric(registry, "requests")
+                .counterTemplate("region", "method", "status");
+        template.get("us-east-1", "GET", 200).inc();
+        template.get("us-east-1", "GET", 500).inc();
+        template.get("us-east-1", "GET", 200).inc();
+
+        assertThat(registry.getCounters()).hasSize(2);
+        assertThat(template.get("us-east-1", "GET", 200).getCount()).isEqualTo(2);
+        assertThat(Librato.metric(registry, "requests").counterTemplate().get())
+                .isSameAs(Librato.metric(registry, "requests").counter());
+    }
+
+    @Test
+    public void testLooksUpOnlyRemovedHandlesAgain() throws Exception {
+        MetricTemplate<Counter> template = Librato.metric(registry, "requests")
+                .counterTemplate("region", "method", "status", "client");
+        Counter kept = template.get("us-east-1", "GET", 200, "web");
+        Counter removed = template.get("us-east-1", "GET", 500, "web");
+        Librato.metric(registry, "requests")
+                .tag("region", "us-east-1").tag("method", "GET").tag("status", 500).tag("client", "web")
+                .remove();
+        registry.remove("unrelated");
+
+        assertThat(template.get("us-east-1", "GET", 200, "web")).isSameAs(kept);
+        Counter registered = template.get("us-east-1", "GET", 500, "web");
+        assertThat(registered).isNotSameAs(removed);
+        assertThat(registry.getCounters().values()).containsOnly(kept, registered);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsTheWrongNumberOfValues() throws Exception {
+        Librato.metric(registry, "requests").meterTemplate("region", "method").get("us-east-1");
+    }
+}
@@ -23,6 +23,7 @@ public class NameCacheTest {
         assertThat(invocations.get()).isEqualTo(1);
         assertThat(cache.get(new Signal("foo", "bar"), supplier)).isEqualTo("value");
         assertThat(invocations.get()).isEqualTo(1);
-
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(1);
     }
 }
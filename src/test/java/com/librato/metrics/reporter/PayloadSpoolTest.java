@@ -0,0 +1,166 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Clock;
+import com.librato.metrics.client.Duration;
+import com.librato.metrics.client.HttpResponse;
+import com.librato.metrics.client.IPoster;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PayloadSpoolTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    long now = 10000 * 1000L;
+    Clock clock = new Clock() {
+        @Override
+        public long getTick() {
+            return now * 1000000;
+        }
+
+        @Override
+        public long getTime() {
+            return now;
+        }
+    };
+
+    @Test
+    public void testReplaysInOrder() throws Exception {
+        PayloadSpool spool = spool(1024, 1024 * 1024);
+        spool.append(10000, false, "first".getBytes());
+        spool.append(10000, true, "second".getBytes());
+        assertThat(spool.getPending()).isEqualTo(2);
+
+        SpoolRecord record = spool.peek();
+        assertThat(new String(record.payload)).isEqualTo("first");
+        assertThat(record.md).isFalse();
+        assertThat(record.epoch).isEqualTo(10000);
+        spool.consume(true);
+        record = spool.peek();
+        assertThat(new String(record.payload)).isEqualTo("second");
+        assertThat(record.md).isTrue();
+        spool.consume(true);
+        assertThat(spool.peek()).isNull();
+        assertThat(spool.getReplayed()).isEqualTo(2);
+    }
+
+    @Test
+    public void testSurvivesReopening() throws Exception {
+        PayloadSpool spool = spool(1024, 1024 * 1024);
+        spool.append(10000, false, "first".getBytes());
+        spool.append(10000, false, "second".getBytes());
+        spool.peek();
+        spool.consume(true);
+        spool.close();
+
+        PayloadSpool reopened = spool(1024, 1024 * 1024);
+        assertThat(reopened.getPending()).isEqualTo(1);
+        assertThat(new String(reopened.peek().payload)).isEqualTo("second");
+        reopened.append(10000, false, "third".getBytes());
+        reopened.consume(true);
+        assertThat(new String(reopened.peek().payload)).isEqualTo("third");
+    }
+
+    @Test
+    public void testRollsSegmentsAndBoundsDiskUsage() throws Exception {
+        byte[] payload = new byte[100];
+        int recordBytes = SpoolSegment.recordBytes(payload);
+        PayloadSpool spool = spool(recordBytes * 2, recordBytes * 4);
+        for (int i = 0; i < 6; i++) {
+            payload[0] = (byte) i;
+            spool.append(10000, false, payload);
+        }
+        assertThat(spool.getBytes()).isEqualTo(recordBytes * 4);
+        assertThat(spool.getEvicted()).isEqualTo(2);
+        assertThat(spool.peek().payload[0]).isEqualTo((byte) 2);
+        assertThat(folder.getRoot().listFiles()).hasSize(2);
+    }
+
+    @Test
+    public void testDoesNotConsumeTheNextPayloadWhenTheInFlightOneWasEvicted() throws Exception {
+        byte[] payload = new byte[100];
+        int recordBytes = SpoolSegment.recordBytes(payload);
+        PayloadSpool spool = spool(recordBytes, recordBytes * 2);
+        payload[0] = 0;
+        spool.append(10000, false, payload);
+        SpoolRecord inFlight = spool.peek();
+        payload[0] = 1;
+        spool.append(10000, false, payload);
+        payload[0] = 2;
+        spool.append(10000, false, payload);
+        spool.consume(inFlight, true);
+
+        assertThat(spool.getEvicted()).isEqualTo(1);
+        assertThat(spool.getReplayed()).isEqualTo(0);
+        assertThat(spool.peek().payload[0]).isEqualTo((byte) 1);
+    }
+
+    @Test
+    public void testDiscardsPayloadsOlderThanMaxAge() throws Exception {
+        PayloadSpool spool = spool(1024, 1024 * 1024);
+        spool.append(10000 - 600, false, "old".getBytes());
+        spool.append(10000, false, "new".getBytes());
+        now += 300 * 1000L;
+        assertThat(new String(spool.peek().payload)).isEqualTo("new");
+        assertThat(spool.getEvicted()).isEqualTo(1);
+    }
+
+    @Test
+    public void testReplayerStopsAtFirstRetriableFailure() throws Exception {
+        final List<Integer> codes = new LinkedList<Integer>();
+        codes.add(200);
+        codes.add(400);
+        codes.add(503);
+        final List<String> urls = new LinkedList<String>();
+        IPoster poster = new IPoster() {
+            @Override
+            public HttpResponse post(String uri, Duration connectTimeout, Duration readTimeout,
+                                     Map<String, String> headers, byte[] payload) {
+                urls.add(uri);
+                final int code = codes.remove(0);
+                return new HttpResponse() {
+                    @Override
+                    public int getResponseCode() {
+                        return code;
+                    }
+
+                    @Override
+                    public byte[] getResponseBody() {
+                        return new byte[0];
+                    }
+                };
+            }
+        };
+        PayloadSpool spool = spool(1024, 1024 * 1024);
+        spool.append(10000, false, "sent".getBytes());
+        spool.append(10000, true, "rejected".getBytes());
+        spool.append(10000, true, "retried".getBytes());
+        SpoolReplayer replayer = new SpoolReplayer(spool, new PayloadPoster(poster,
+                "https://metrics-api.librato.com",
+                new Duration(1, TimeUnit.SECONDS),
+                new Duration(1, TimeUnit.SECONDS),
+                new HashMap<String, String>()), 10);
+
+        assertThat(replayer.replay()).isEqualTo(1);
+        assertThat(urls).containsExactly(
+                "https://metrics-api.librato.com/v1/metrics",
+                "https://metrics-api.librato.com/v1/measurements",
+                "https://metrics-api.librato.com/v1/measurements");
+        assertThat(new String(spool.peek().payload)).isEqualTo("retried");
+        assertThat(spool.getEvicted()).isEqualTo(1);
+    }
+
+    private PayloadSpool spool(int segmentBytes, long maxBytes) throws Exception {
+        File directory = folder.getRoot();
+        return new PayloadSpool(directory, segmentBytes, maxBytes, 5, TimeUnit.MINUTES, clock);
+    }
+}
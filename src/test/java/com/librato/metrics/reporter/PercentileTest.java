@@ -0,0 +1,38 @@
+package com.librato.metrics.reporter;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PercentileTest {
+    @Test
+    public void testDerivesSuffixes() throws Exception {
+        assertThat(Percentile.suffix(0.9)).isEqualTo("90th");
+        assertThat(Percentile.suffix(0.999)).isEqualTo("999th");
+        assertThat(Percentile.suffix(0.9999)).isEqualTo("9999th");
+        assertThat(Percentile.suffix(1)).isEqualTo("100th");
+        assertThat(Percentile.suffix(0.1)).isEqualTo("10th");
+        assertThat(Percentile.suffix(0.01)).isEqualTo("p1");
+        assertThat(Percentile.suffix(0.099)).isEqualTo("p9_9");
+        assertThat(Percentile.suffix(0.0999)).isEqualTo("p9_99");
+        assertThat(Percentile.suffix(0.0001)).isEqualTo("p0_01");
+    }
+
+    @Test
+    public void testGivesDistinctQuantilesDistinctSuffixes() throws Exception {
+        double[] quantiles = {0.001, 0.01, 0.0999, 0.099, 0.1, 0.1005, 0.105, 0.5, 0.9, 0.99, 0.999, 0.9999, 1};
+        Set<String> suffixes = new HashSet<String>();
+        for (double quantile : quantiles) {
+            suffixes.add(Percentile.suffix(quantile));
+        }
+        assertThat(suffixes).hasSize(quantiles.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsQuantilesOutOfRange() throws Exception {
+        new Percentile(0, 0);
+    }
+}
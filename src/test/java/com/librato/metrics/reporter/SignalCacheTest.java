@@ -0,0 +1,35 @@
+package com.librato.metrics.reporter;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SignalCacheTest {
+    @Test
+    public void testTracksHitsAndMisses() throws Exception {
+        SignalCache cache = new SignalCache(10);
+        assertThat(cache.get("foo")).isNull();
+        cache.put("foo", new Signal("foo", "bar"));
+        assertThat(cache.get("foo").signal).isEqualTo(new Signal("foo", "bar"));
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    public void testBuildsExpandedSignalsOnce() throws Exception {
+        ResolvedSignal resolved = new SignalCache(10).put("foo", new Signal("foo", "bar"));
+        Signal count = resolved.get(ExpandedMetric.COUNT);
+        assertThat(count).isEqualTo(new Signal("foo.count", "bar"));
+        assertThat(resolved.get(ExpandedMetric.COUNT)).isSameAs(count);
+        assertThat(resolved.get(null)).isSameAs(resolved.signal);
+    }
+
+    @Test
+    public void testInvalidates() throws Exception {
+        SignalCache cache = new SignalCache(10);
+        cache.put("foo", new Signal("foo"));
+        cache.invalidate("foo");
+        assertThat(cache.get("foo")).isNull();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+}
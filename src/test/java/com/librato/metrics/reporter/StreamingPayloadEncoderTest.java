@@ -0,0 +1,289 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.MetricRegistry;
+import com.librato.metrics.client.Duration;
+import com.librato.metrics.client.HttpResponse;
+import com.librato.metrics.client.IMeasure;
+import com.librato.metrics.client.IPoster;
+import com.librato.metrics.client.Json;
+import com.librato.metrics.client.LibratoClient;
+import com.librato.metrics.client.Measures;
+import com.librato.metrics.client.Sanitizer;
+import com.librato.metrics.client.Tag;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StreamingPayloadEncoderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    MetricRegistry registry = new MetricRegistry();
+    List<Tag> reporterTags = Arrays.asList(new Tag("env", "prod"), new Tag("source", "host"));
+    List<String> urls = new ArrayList<String>();
+    List<Map<String, String>> headers = new ArrayList<Map<String, String>>();
+    List<byte[]> payloads = new ArrayList<byte[]>();
+    int responseCode = 200;
+    boolean record = true;
+    IPoster poster = new IPoster() {
+        @Override
+        public HttpResponse post(String uri, Duration connectTimeout, Duration readTimeout,
+                                 Map<String, String> headers, byte[] payload) {
+            if (record) {
+                urls.add(uri);
+                StreamingPayloadEncoderTest.this.headers.add(headers);
+                payloads.add(payload);
+            }
+            return new HttpResponse() {
+                @Override
+                public int getResponseCode() {
+                    return responseCode;
+                }
+
+                @Override
+                public byte[] getResponseBody() {
+                    return new byte[0];
+                }
+            };
+        }
+    };
+
+    @Test
+    public void testWritesTheSamePayloadsAsTheClient() throws Exception {
+        // the client encodes its credentials with JAXB, which is not part of Java 11 and later
+        Assume.assumeTrue(isClassPresent("javax.xml.bind.DatatypeConverter"));
+        List<ResolvedSignal> signals = signals();
+        Measures measures = new Measures("my source", Collections.<Tag>emptyList(), 1000L, 60);
+        write(new MeasuresSink(measures, true, true, reporterTags), signals);
+        StreamingPayloadEncoder encoder = encoder(null, 500, false);
+        encoder.begin(1000L, 60);
+        write(encoder, signals);
+        encoder.finish();
+
+        assertThat(urls).containsExactly(
+                "https://metrics-api.librato.com/v1/metrics",
+                "https://metrics-api.librato.com/v1/measurements");
+        Map<String, byte[]> clientPayloads = postWithClient(measures);
+        assertThat(clientPayloads.keySet()).containsOnlyElementsOf(urls);
+        assertThat(parse(payloads.get(0))).isEqualTo(parse(clientPayloads.get(urls.get(0))));
+        assertThat(parse(payloads.get(1))).isEqualTo(parse(clientPayloads.get(urls.get(1))));
+    }
+
+    @Test
+    public void testGzipsAndBatches() throws Exception {
+        StreamingPayloadEncoder encoder = new StreamingPayloadEncoder(payloadPoster(), null,
+                false, true, reporterTags, null, 2, true, Deflater.BEST_SPEED, registry, "librato");
+        encoder.begin(1000L, null);
+        for (int i = 0; i < 5; i++) {
+            encoder.add(new ResolvedSignal(new Signal("counter" + i)), null, i);
+        }
+        encoder.finish();
+
+        assertThat(payloads).hasSize(3);
+        assertThat(headers.get(0)).containsEntry("Content-Encoding", "gzip");
+        Map<?, ?> last = parse(gunzip(payloads.get(2)));
+        assertThat(last.get("time")).isEqualTo(1000);
+        assertThat((List<?>) last.get("measurements")).hasSize(1);
+        long compressed = 0;
+        for (byte[] payload : payloads) {
+            compressed += payload.length;
+        }
+        assertThat(registry.counter("librato.compression.compressedBytes").getCount()).isEqualTo(compressed);
+        assertThat(registry.counter("librato.compression.uncompressedBytes").getCount())
+                .isEqualTo(gunzip(payloads.get(0)).length + gunzip(payloads.get(1)).length + gunzip(payloads.get(2)).length);
+    }
+
+    @Test
+    public void testSpoolsRetriableFailures() throws Exception {
+        PayloadSpool spool = new PayloadSpool(folder.getRoot(), 1024 * 1024, 1024 * 1024, 1, TimeUnit.HOURS);
+        StreamingPayloadEncoder encoder = encoder(spool, 500, true);
+        long epoch = System.currentTimeMillis() / 1000;
+        responseCode = 503;
+        encoder.begin(epoch, 60);
+        encoder.add(new ResolvedSignal(new Signal("foo")), null, 1);
+        encoder.finish();
+        responseCode = 400;
+        encoder.begin(epoch, 60);
+        encoder.add(new ResolvedSignal(new Signal("bar")), null, 1);
+        encoder.finish();
+
+        assertThat(spool.getPending()).isEqualTo(2);
+        SpoolRecord record = spool.peek();
+        assertThat(record.epoch).isEqualTo(epoch);
+        assertThat(record.gzip).isTrue();
+        assertThat(record.md).isFalse();
+        assertThat(record.payload).isEqualTo(payloads.get(0));
+    }
+
+    @Test
+    public void testAllocatesLessThanBuildingMeasures() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        record = false;
+        final List<ResolvedSignal> signals = new ArrayList<ResolvedSignal>();
+        for (int i = 0; i < 10000; i++) {
+            signals.add(new ResolvedSignal(new Signal("series" + i, "host" + (i % 10))));
+        }
+        final StreamingPayloadEncoder encoder = encoder(null, 500, false);
+        Runnable streaming = new Runnable() {
+            @Override
+            public void run() {
+                encoder.begin(1000L, 60);
+                write(encoder, signals);
+                encoder.finish();
+            }
+        };
+        Runnable measures = new Runnable() {
+            @Override
+            public void run() {
+                Measures measures = new Measures(null, Collections.<Tag>emptyList(), 1000L, 60);
+                write(new MeasuresSink(measures, true, true, reporterTags), signals);
+                for (Measures chunk : measures.toSD().partition(500)) {
+                    clientPayload(chunk, false);
+                }
+                for (Measures chunk : measures.toMD().partition(500)) {
+                    clientPayload(chunk, true);
+                }
+            }
+        };
+        long streamingBytes = allocatedBytes(threadBean, streaming);
+        long measuresBytes = allocatedBytes(threadBean, measures);
+
+        assertThat(streamingBytes).isLessThan(measuresBytes / 4);
+    }
+
+    private long allocatedBytes(com.sun.management.ThreadMXBean bean, Runnable report) {
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 3; i++) {
+            report.run();
+        }
+        long before = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 5; i++) {
+            report.run();
+        }
+        return (bean.getThreadAllocatedBytes(threadId) - before) / 5;
+    }
+
+    private List<ResolvedSignal> signals() {
+        List<ResolvedSignal> signals = new ArrayList<ResolvedSignal>();
+        signals.add(new ResolvedSignal(new Signal("plain")));
+        signals.add(new ResolvedSignal(new Signal("with source", "a/source")));
+        signals.add(new ResolvedSignal(new Signal("tagged", null,
+                Arrays.asList(new Tag("region", "us \"east\""), new Tag("env", "dev")), false)));
+        signals.add(new ResolvedSignal(new Signal("overridden", null,
+                Collections.singletonList(new Tag("only", "me")), true)));
+        return signals;
+    }
+
+    private void write(MeasureSink sink, List<ResolvedSignal> signals) {
+        for (ResolvedSignal signal : signals) {
+            sink.add(signal, null, 42.5);
+            sink.add(signal, ExpandedMetric.PCT_99, 0.001);
+            sink.addPercentile(signal, new Percentile(0.9999, 1), 0.002);
+            sink.add(signal, 1.5e10, 3, -1, 1e-7);
+        }
+    }
+
+    private StreamingPayloadEncoder encoder(PayloadSpool spool, int batchSize, boolean gzip) {
+        return new StreamingPayloadEncoder(payloadPoster(), spool, true, true, reporterTags,
+                "my source", batchSize, gzip, Deflater.DEFAULT_COMPRESSION, registry, "librato");
+    }
+
+    private PayloadPoster payloadPoster() {
+        return new PayloadPoster(poster,
+                "https://metrics-api.librato.com",
+                new Duration(1, TimeUnit.SECONDS),
+                new Duration(1, TimeUnit.SECONDS),
+                new HashMap<String, String>());
+    }
+
+    /**
+     * Posts the measures with a real {@link LibratoClient}, returning the payloads it built by url
+     */
+    private static Map<String, byte[]> postWithClient(Measures measures) {
+        final Map<String, byte[]> captured = new ConcurrentHashMap<String, byte[]>();
+        LibratoClient client = LibratoClient.builder("email", "token")
+                .setPoster(new IPoster() {
+                    @Override
+                    public HttpResponse post(String uri, Duration connectTimeout, Duration readTimeout,
+                                             Map<String, String> headers, byte[] payload) {
+                        captured.put(uri, payload);
+                        return new HttpResponse() {
+                            @Override
+                            public int getResponseCode() {
+                                return 200;
+                            }
+
+                            @Override
+                            public byte[] getResponseBody() {
+                                return new byte[0];
+                            }
+                        };
+                    }
+                })
+                .build();
+        client.postMeasures(measures);
+        return captured;
+    }
+
+    private static boolean isClassPresent(String name) {
+        try {
+            Class.forName(name);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    // builds payloads like the LibratoClient, on this thread, so that their allocations can be measured
+    private static byte[] clientPayload(Measures measures, boolean md) {
+        Map<String, Object> payload = new HashMap<String, Object>();
+        payload.put(md ? "time" : "measure_time", measures.getEpoch());
+        if (!md && measures.getSource() != null) {
+            payload.put("source", Sanitizer.SOURCE_SANITIZER.apply(measures.getSource()));
+        }
+        if (measures.getPeriod() != null) {
+            payload.put("period", measures.getPeriod());
+        }
+        List<Map<String, Object>> list = new LinkedList<Map<String, Object>>();
+        for (IMeasure measure : measures.getMeasures()) {
+            list.add(measure.toMap());
+        }
+        payload.put(md ? "measurements" : "gauges", list);
+        return Json.serialize(payload);
+    }
+
+    private static Map<?, ?> parse(byte[] payload) {
+        return Json.deserialize(payload, Map.class);
+    }
+
+    static byte[] gunzip(byte[] payload) throws Exception {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(payload));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,116 @@
+package com.librato.metrics.reporter;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class StripedMeterTest {
+    long tick = 0;
+    Clock clock = new Clock() {
+        @Override
+        public long getTick() {
+            return tick;
+        }
+    };
+
+    @Test
+    public void testReportsTheSameRatesAsAMeter() throws Exception {
+        Meter expected = new Meter(clock);
+        StripedMeter meter = new StripedMeter(clock);
+        for (int second = 0; second < 600; second++) {
+            long marks = second < 300 ? 10 : 1;
+            expected.mark(marks);
+            meter.mark(marks);
+            tick += TimeUnit.SECONDS.toNanos(1);
+            if (second % 5 == 0) {
+                assertThat(meter.getOneMinuteRate()).isEqualTo(expected.getOneMinuteRate());
+                assertThat(meter.getFiveMinuteRate()).isEqualTo(expected.getFiveMinuteRate());
+                assertThat(meter.getFifteenMinuteRate()).isEqualTo(expected.getFifteenMinuteRate());
+            }
+        }
+        assertThat(meter.getCount()).isEqualTo(expected.getCount());
+        assertThat(meter.getMeanRate()).isEqualTo(expected.getMeanRate());
+    }
+
+    @Test
+    public void testReportsTheSameRatesAsAMeterReadEveryMinute() throws Exception {
+        Meter expected = new Meter(clock);
+        StripedMeter meter = new StripedMeter(clock);
+        for (int second = 1; second <= 1800; second++) {
+            expected.mark(10);
+            meter.mark(10);
+            tick += TimeUnit.SECONDS.toNanos(1);
+            if (second % 60 == 0) {
+                // a steady 10 per second, which a Meter overstates at first by counting six seconds in its first tick
+                assertThat(meter.getOneMinuteRate()).isCloseTo(10, within(0.001));
+                assertThat(meter.getFiveMinuteRate()).isCloseTo(10, within(0.001));
+                assertThat(meter.getFifteenMinuteRate()).isCloseTo(10, within(0.001));
+                if (second >= 600) {
+                    assertThat(meter.getOneMinuteRate()).isCloseTo(expected.getOneMinuteRate(), within(0.01));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCountsMarksFromManyThreads() throws Exception {
+        final StripedMeter meter = new StripedMeter();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        meter.mark();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(meter.getCount()).isEqualTo(800000);
+    }
+
+    @Test
+    public void testTimerRecordsLikeATimer() throws Exception {
+        Timer expected = new Timer(new UniformReservoir(), clock);
+        StripedTimer timer = new StripedTimer(new UniformReservoir(), clock);
+        for (int i = 1; i <= 100; i++) {
+            expected.update(i, TimeUnit.MILLISECONDS);
+            timer.update(i, TimeUnit.MILLISECONDS);
+        }
+        timer.update(-1, TimeUnit.MILLISECONDS);
+        String result = timer.time(new Callable<String>() {
+            @Override
+            public String call() {
+                tick += TimeUnit.MILLISECONDS.toNanos(50);
+                return "done";
+            }
+        });
+        expected.update(50, TimeUnit.MILLISECONDS);
+        Timer.Context context = timer.time();
+        tick += TimeUnit.MILLISECONDS.toNanos(70);
+        context.stop();
+        expected.update(70, TimeUnit.MILLISECONDS);
+        tick += TimeUnit.SECONDS.toNanos(6);
+
+        assertThat(result).isEqualTo("done");
+        assertThat(timer.getCount()).isEqualTo(expected.getCount());
+        assertThat(timer.getSnapshot().getValues()).isEqualTo(expected.getSnapshot().getValues());
+        assertThat(timer.getOneMinuteRate()).isEqualTo(expected.getOneMinuteRate());
+        assertThat(timer.getMeanRate()).isEqualTo(expected.getMeanRate());
+    }
+}
@@ -0,0 +1,55 @@
+package com.librato.metrics.reporter;
+
+import com.librato.metrics.client.Tag;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TagSetTest {
+    @Test
+    public void testInternsEqualTags() throws Exception {
+        List<Tag> tags = new LinkedList<Tag>(asList(new Tag("env", "prod"), new Tag("region", "us-east-1")));
+        TagSet interned = TagSet.of(tags);
+
+        assertThat(TagSet.of(new ArrayList<Tag>(tags))).isSameAs(interned);
+        assertThat(TagSet.of(new Tag("env", "prod"), new Tag("region", "us-east-1"))).isSameAs(interned);
+        assertThat(TagSet.of(Collections.<Tag>emptyList())).isSameAs(TagSet.EMPTY);
+        assertThat(interned).isEqualTo(tags);
+        assertThat(tags).isEqualTo(interned);
+        assertThat(interned.hashCode()).isEqualTo(tags.hashCode());
+    }
+
+    @Test
+    public void testDecodedSignalsShareTags() throws Exception {
+        List<Tag> tags = new LinkedList<Tag>(asList(new Tag("env", "prod")));
+        Signal registered = new Signal("foo", null, tags, false);
+        assertThat(registered.tags).isSameAs(tags);
+
+        Signal first = Signal.decode(Json.serialize(registered));
+        Signal second = Signal.decode(CompactName.encode(new Signal("bar", null, tags, false)));
+        assertThat(first.tags).isInstanceOf(TagSet.class).isSameAs(second.tags);
+    }
+
+    @Test
+    public void testSharesMergedTags() throws Exception {
+        TagSet reporterTags = TagSet.of(new Tag("host", "a"));
+        ResolvedSignal first = new ResolvedSignal(new Signal("foo", null, asList(new Tag("env", "prod")), false));
+        ResolvedSignal second = new ResolvedSignal(new Signal("bar", null, asList(new Tag("env", "prod")), false));
+
+        TagSet merged = first.getMergedTags(reporterTags);
+        assertThat(merged).containsExactly(new Tag("env", "prod"), new Tag("host", "a"));
+        assertThat(second.getMergedTags(reporterTags)).isSameAs(merged);
+        assertThat(TagSet.of(new Tag("env", "prod")).merge(TagSet.EMPTY)).containsExactly(new Tag("env", "prod"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testIsImmutable() throws Exception {
+        TagSet.of(new Tag("env", "prod")).add(new Tag("region", "us-east-1"));
+    }
+}